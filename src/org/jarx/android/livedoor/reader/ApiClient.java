@@ -9,8 +9,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.HttpEntity;
@@ -21,14 +27,19 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
 import org.apache.http.cookie.Cookie;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
@@ -38,6 +49,7 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.ContentHandler;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
+import android.util.Log;
 import static org.jarx.android.livedoor.reader.Utils.asInt;
 
 public class ApiClient {
@@ -60,16 +72,32 @@ public class ApiClient {
     private static final String URL_API_DISCOVER = "http://rpc.reader.livedoor.com/feed/discover";
     private static final String URL_RPC_NOTIFY = "http://rpc.reader.livedoor.com/notify";
 
+    public static final int MAX_CONNECTIONS = 4;
+    public static final int MAX_ICON_CONNECTIONS = 2;
+    public static final int MAX_IMAGE_CONNECTIONS = 2;
+
+    private static final String TAG = "ApiClient";
+    // NOTE: a request waits this long for a pooled connection
+    private static final long CONNECTION_WAIT_TIMEOUT = 60 * 1000;
+
     private final DefaultHttpClient client;
+    private final AtomicLong transferredBytes = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
     private String loginId;
     private String password;
-    private String apiKey;
+    // NOTE: read by the sync workers
+    private volatile String apiKey;
 
     public ApiClient() {
         HttpParams params = new BasicHttpParams();
         HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
         HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
         HttpProtocolParams.setUserAgent(params, getClass().getName());
+        ConnManagerParams.setMaxTotalConnections(params,
+            MAX_CONNECTIONS + MAX_ICON_CONNECTIONS + MAX_IMAGE_CONNECTIONS);
+        ConnManagerParams.setMaxConnectionsPerRoute(params,
+            new ConnPerRouteBean(MAX_CONNECTIONS));
+        ConnManagerParams.setTimeout(params, CONNECTION_WAIT_TIMEOUT);
 
         final SchemeRegistry reg = new SchemeRegistry();
         reg.register(new Scheme("http",
@@ -82,9 +110,17 @@ public class ApiClient {
 
         this.client = new DefaultHttpClient(manager, params);
         this.client.getParams().setParameter("http.socket.timeout", 30 * 1000);
+        this.client.addRequestInterceptor(new HttpRequestInterceptor() {
+            public void process(HttpRequest req, HttpContext context)
+                    throws HttpException, IOException {
+                if (!req.containsHeader("Accept-Encoding")) {
+                    req.addHeader("Accept-Encoding", "gzip, deflate");
+                }
+            }
+        });
     }
 
-    public boolean login(String loginId, String password)
+    public synchronized boolean login(String loginId, String password)
             throws IOException, ReaderException {
         if (loginId == null || password == null) {
             return false;
@@ -98,7 +134,7 @@ public class ApiClient {
         return isLogined();
     }
 
-    public void logout() {
+    public synchronized void logout() {
         this.apiKey = null;
         this.loginId = null;
         this.password = null;
@@ -113,7 +149,7 @@ public class ApiClient {
         return this.loginId;
     }
 
-    private void initApiKey() throws IOException, ReaderException {
+    private synchronized void initApiKey() throws IOException, ReaderException {
         if (this.loginId == null || this.password == null) {
             throw new IllegalStateException("no login info");
         }
@@ -121,11 +157,18 @@ public class ApiClient {
             return;
         }
 
-        HttpResponse res = this.client.execute(new HttpGet(URL_READER));
+        HttpGet get = new HttpGet(URL_READER);
+        HttpResponse res = this.client.execute(get);
         int resStatus = res.getStatusLine().getStatusCode();
         if (resStatus != HttpStatus.SC_OK) {
+            get.abort();
             throw new IOException("invalid http status " + resStatus);
         }
+        // NOTE: only the cookies are used, releases the connection
+        HttpEntity entity = res.getEntity();
+        if (entity != null) {
+            entity.consumeContent();
+        }
 
         List<NameValuePair> params = new ArrayList<NameValuePair>(4);
         params.add(new BasicNameValuePair(".sv", "reader"));
@@ -185,6 +228,17 @@ public class ApiClient {
         new JSONParser().parse(readSubs(unread, fromId, limit), handler);
     }
 
+    public int decodeSubs(boolean unread, int fromId, int limit,
+            ApiDecoder.SubscriptionHandler handler)
+            throws IOException, ParseException, ReaderException {
+        java.io.Reader in = readSubs(unread, fromId, limit);
+        try {
+            return new ApiDecoder(in).decodeSubs(handler);
+        } finally {
+            in.close();
+        }
+    }
+
     public JSONArray subs(boolean unread, int fromId, int limit)
             throws IOException, ParseException, ReaderException {
         return toJSONArray(readSubs(unread, fromId, limit));
@@ -227,6 +281,17 @@ public class ApiClient {
         new JSONParser().parse(readAll(subId, offset, limit), handler);
     }
 
+    public int decodeAll(long subId, int offset, int limit,
+            ApiDecoder.ItemHandler handler)
+            throws IOException, ParseException, ReaderException {
+        java.io.Reader in = readAll(subId, offset, limit);
+        try {
+            return new ApiDecoder(in).decodeItems(handler);
+        } finally {
+            in.close();
+        }
+    }
+
     public JSONArray all(long subId, int offset, int limit)
             throws IOException, ParseException, ReaderException {
         return toJSONArray(readAll(subId, offset, limit));
@@ -249,6 +314,16 @@ public class ApiClient {
         new JSONParser().parse(readUnread(subId), handler);
     }
 
+    public int decodeUnread(long subId, ApiDecoder.ItemHandler handler)
+            throws IOException, ParseException, ReaderException {
+        java.io.Reader in = readUnread(subId);
+        try {
+            return new ApiDecoder(in).decodeItems(handler);
+        } finally {
+            in.close();
+        }
+    }
+
     public JSONArray unread(long subId)
             throws IOException, ParseException, ReaderException {
         JSONObject o = toJSONObject(readUnread(subId));
@@ -286,6 +361,16 @@ public class ApiClient {
         new JSONParser().parse(readPinAll(), handler);
     }
 
+    public int decodePinAll(ApiDecoder.PinHandler handler)
+            throws IOException, ParseException, ReaderException {
+        java.io.Reader in = readPinAll();
+        try {
+            return new ApiDecoder(in).decodePins(handler);
+        } finally {
+            in.close();
+        }
+    }
+
     /** implements /api/pin/add */
     public boolean pinAdd(String link, String title)
             throws IOException, ParseException, ReaderException {
@@ -369,24 +454,44 @@ public class ApiClient {
     }
 
     public InputStream doGetInputStream(String url) throws IOException {
+        return doGetInputStream(url, 0);
+    }
+
+    /** timeout in milliseconds for connect and read, 0 uses the client default */
+    public InputStream doGetInputStream(String url, int timeout)
+            throws IOException {
+        return doGetInputStream(url, timeout, 0);
+    }
+
+    /**
+     * reads at most maxLength bytes of the body, 0 for no limit. a larger
+     * body aborts the request and throws IOException, before reading
+     * when Content-Length tells, else when the read passes maxLength.
+     */
+    public InputStream doGetInputStream(String url, int timeout,
+            long maxLength) throws IOException {
         HttpGet get = new HttpGet(url);
+        if (timeout > 0) {
+            HttpParams params = get.getParams();
+            params.setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, timeout);
+            params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, timeout);
+        }
         HttpResponse res = this.client.execute(get);
         int resStatus = res.getStatusLine().getStatusCode();
         if (resStatus != HttpStatus.SC_OK) {
+            // NOTE: releases the pooled connection without reading the body
+            get.abort();
             throw new IOException("invalid http status " + resStatus);
         }
-
-        final HttpEntity entity = res.getEntity();
-        if (entity == null) {
-            throw new IOException("null response entity");
+        HttpEntity entity = res.getEntity();
+        if (maxLength > 0 && entity != null
+                && entity.getContentLength() > maxLength) {
+            get.abort();
+            throw new IOException("content length "
+                + entity.getContentLength() + " over " + maxLength);
         }
 
-        return new FilterInputStream(entity.getContent()) {
-            public void close() throws IOException {
-                super.close();
-                // entity.consumeContent();
-            }
-        };
+        return openContent(url, get, entity, maxLength);
     }
 
     public InputStream doPostInputStream(String url, List<NameValuePair> params)
@@ -397,18 +502,85 @@ public class ApiClient {
         HttpResponse res = this.client.execute(post);
         int resStatus = res.getStatusLine().getStatusCode();
         if (resStatus != HttpStatus.SC_OK) {
+            post.abort();
             throw new IOException("invalid http status " + resStatus);
         }
 
-        final HttpEntity entity = res.getEntity();
+        return openContent(url, post, res.getEntity(), 0);
+    }
+
+    /** bytes read from the wire since this client was created */
+    public long getTransferredBytes() {
+        return this.transferredBytes.get();
+    }
+
+    /** bytes after content decoding since this client was created */
+    public long getDecodedBytes() {
+        return this.decodedBytes.get();
+    }
+
+    private InputStream openContent(final String url,
+            final HttpRequestBase request, HttpEntity entity,
+            final long maxLength) throws IOException {
         if (entity == null) {
             throw new IOException("null response entity");
         }
 
-        return new FilterInputStream(entity.getContent()) {
+        final CountingInputStream wire
+            = new CountingInputStream(entity.getContent());
+        InputStream in = wire;
+        Header encoding = entity.getContentEncoding();
+        if (encoding != null) {
+            String value = encoding.getValue().trim();
+            if (value.equalsIgnoreCase("gzip")
+                    || value.equalsIgnoreCase("x-gzip")) {
+                try {
+                    in = new GZIPInputStream(wire, 8192);
+                } catch (IOException e) {
+                    // NOTE: a bad gzip header, the caller has no stream
+                    // to close
+                    wire.close();
+                    throw e;
+                }
+            } else if (value.equalsIgnoreCase("deflate")) {
+                // NOTE: zlib wrapped deflate, as sent by common servers
+                in = new InflaterInputStream(wire);
+            }
+        }
+
+        return new CountingInputStream(in) {
+            private boolean closed;
+            public int read() throws IOException {
+                int b = super.read();
+                checkLength();
+                return b;
+            }
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                checkLength();
+                return n;
+            }
+            private void checkLength() throws IOException {
+                if (maxLength > 0 && getCount() > maxLength) {
+                    // NOTE: close() would read the rest of the body to
+                    // reuse the connection, drop the connection instead
+                    request.abort();
+                    throw new IOException("content over " + maxLength
+                        + " bytes " + url);
+                }
+            }
             public void close() throws IOException {
                 super.close();
-                // entity.consumeContent();
+                if (this.closed) {
+                    return;
+                }
+                this.closed = true;
+                long wireCount = wire.getCount();
+                long decodedCount = getCount();
+                ApiClient.this.transferredBytes.addAndGet(wireCount);
+                ApiClient.this.decodedBytes.addAndGet(decodedCount);
+                Log.d(TAG, url + " transferred " + wireCount
+                    + " bytes, decoded " + decodedCount + " bytes");
             }
         };
     }
@@ -437,6 +609,45 @@ public class ApiClient {
         }
     }
 
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                this.count++;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                this.count += n;
+            }
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            this.count += skipped;
+            return skipped;
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+
+        long getCount() {
+            return this.count;
+        }
+    }
+
     private JSONArray toJSONArray(java.io.Reader in)
             throws IOException, ParseException {
         return (JSONArray) new JSONParser().parse(readString(in));
@@ -0,0 +1,563 @@
+package org.jarx.android.livedoor.reader;
+
+import java.io.IOException;
+import java.io.Reader;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Streaming decoder for the /api/subs, /api/unread, /api/all and
+ * /api/pin/all responses.
+ *
+ * Field names are matched against fixed key tables, numbers are read
+ * as primitives, and one record instance is reused per response, so a
+ * handler must copy what it keeps before returning.
+ */
+public class ApiDecoder {
+
+    public static interface SubscriptionHandler {
+        boolean subscription(Subscription sub) throws IOException;
+    }
+
+    public static interface ItemHandler {
+        boolean item(Item item) throws IOException;
+    }
+
+    public static interface PinHandler {
+        boolean pin(Pin pin) throws IOException;
+    }
+
+    private static final String[] SUB_KEYS = {
+        "subscribe_id", "title", "icon", "link", "folder", "rate",
+        "unread_count", "subscribers_count", "modified_on"
+    };
+    private static final int SUB_ID = 0;
+    private static final int SUB_TITLE = 1;
+    private static final int SUB_ICON = 2;
+    private static final int SUB_LINK = 3;
+    private static final int SUB_FOLDER = 4;
+    private static final int SUB_RATE = 5;
+    private static final int SUB_UNREAD_COUNT = 6;
+    private static final int SUB_SUBSCRIBERS_COUNT = 7;
+    private static final int SUB_MODIFIED_ON = 8;
+
+    private static final String[] ENTRIES_KEYS = {"items"};
+    private static final int ENTRIES_ITEMS = 0;
+
+    private static final String[] ITEM_KEYS = {
+        "id", "title", "body", "author", "link", "created_on", "modified_on"
+    };
+    private static final int ITEM_ID = 0;
+    private static final int ITEM_TITLE = 1;
+    private static final int ITEM_BODY = 2;
+    private static final int ITEM_AUTHOR = 3;
+    private static final int ITEM_LINK = 4;
+    private static final int ITEM_CREATED_ON = 5;
+    private static final int ITEM_MODIFIED_ON = 6;
+
+    private static final String[] PIN_KEYS = {"link", "title", "created_on"};
+    private static final int PIN_LINK = 0;
+    private static final int PIN_TITLE = 1;
+    private static final int PIN_CREATED_ON = 2;
+
+    private static final int EOF = -1;
+
+    private final Reader in;
+    private final char[] buff = new char[8192];
+    private int buffPos;
+    private int buffLimit;
+    private int position;
+    private char[] chars = new char[256];
+    private int charsLength;
+
+    public ApiDecoder(Reader in) {
+        this.in = in;
+    }
+
+    /** decodes /api/subs */
+    public int decodeSubs(SubscriptionHandler handler)
+            throws IOException, ParseException {
+        Subscription sub = new Subscription();
+        int count = 0;
+        expect('[');
+        if (skipIfNext(']')) {
+            return count;
+        }
+        do {
+            resetSubscription(sub);
+            expect('{');
+            if (!skipIfNext('}')) {
+                do {
+                    switch (readKey(SUB_KEYS)) {
+                    case SUB_ID:
+                        sub.setId(readLong());
+                        break;
+                    case SUB_TITLE:
+                        sub.setTitle(readString());
+                        break;
+                    case SUB_ICON:
+                        sub.setIconUri(readString());
+                        break;
+                    case SUB_LINK:
+                        sub.setUri(readString());
+                        break;
+                    case SUB_FOLDER:
+                        sub.setFolder(readString());
+                        break;
+                    case SUB_RATE:
+                        sub.setRate((int) readLong());
+                        break;
+                    case SUB_UNREAD_COUNT:
+                        sub.setUnreadCount((int) readLong());
+                        break;
+                    case SUB_SUBSCRIBERS_COUNT:
+                        sub.setSubscribersCount((int) readLong());
+                        break;
+                    case SUB_MODIFIED_ON:
+                        sub.setModifiedTime(readLong());
+                        break;
+                    default:
+                        skipValue();
+                    }
+                } while (skipIfNext(','));
+                expect('}');
+            }
+            count++;
+            if (!handler.subscription(sub)) {
+                return count;
+            }
+        } while (skipIfNext(','));
+        expect(']');
+        return count;
+    }
+
+    /** decodes the items of /api/unread and /api/all */
+    public int decodeItems(ItemHandler handler)
+            throws IOException, ParseException {
+        int count = 0;
+        expect('{');
+        if (skipIfNext('}')) {
+            return count;
+        }
+        do {
+            if (readKey(ENTRIES_KEYS) != ENTRIES_ITEMS) {
+                skipValue();
+                continue;
+            }
+            if (skipIfNull()) {
+                continue;
+            }
+            Item item = new Item();
+            expect('[');
+            if (skipIfNext(']')) {
+                continue;
+            }
+            do {
+                resetItem(item);
+                expect('{');
+                if (!skipIfNext('}')) {
+                    do {
+                        switch (readKey(ITEM_KEYS)) {
+                        case ITEM_ID:
+                            item.setId(readLong());
+                            break;
+                        case ITEM_TITLE:
+                            item.setTitle(readString());
+                            break;
+                        case ITEM_BODY:
+                            item.setBody(readString());
+                            break;
+                        case ITEM_AUTHOR:
+                            item.setAuthor(readString());
+                            break;
+                        case ITEM_LINK:
+                            item.setUri(readString());
+                            break;
+                        case ITEM_CREATED_ON:
+                            item.setCreatedTime(readLong());
+                            break;
+                        case ITEM_MODIFIED_ON:
+                            item.setModifiedTime(readLong());
+                            break;
+                        default:
+                            skipValue();
+                        }
+                    } while (skipIfNext(','));
+                    expect('}');
+                }
+                count++;
+                if (!handler.item(item)) {
+                    return count;
+                }
+            } while (skipIfNext(','));
+            expect(']');
+        } while (skipIfNext(','));
+        expect('}');
+        return count;
+    }
+
+    /** decodes /api/pin/all */
+    public int decodePins(PinHandler handler)
+            throws IOException, ParseException {
+        Pin pin = new Pin();
+        int count = 0;
+        expect('[');
+        if (skipIfNext(']')) {
+            return count;
+        }
+        do {
+            pin.setUri(null);
+            pin.setTitle(null);
+            pin.setCreatedTime(0);
+            expect('{');
+            if (!skipIfNext('}')) {
+                do {
+                    switch (readKey(PIN_KEYS)) {
+                    case PIN_LINK:
+                        pin.setUri(readString());
+                        break;
+                    case PIN_TITLE:
+                        pin.setTitle(readString());
+                        break;
+                    case PIN_CREATED_ON:
+                        pin.setCreatedTime(readLong());
+                        break;
+                    default:
+                        skipValue();
+                    }
+                } while (skipIfNext(','));
+                expect('}');
+            }
+            count++;
+            if (!handler.pin(pin)) {
+                return count;
+            }
+        } while (skipIfNext(','));
+        expect(']');
+        return count;
+    }
+
+    private static void resetSubscription(Subscription sub) {
+        sub.setId(0);
+        sub.setTitle(null);
+        sub.setIconUri(null);
+        sub.setUri(null);
+        sub.setFolder(null);
+        sub.setRate(0);
+        sub.setUnreadCount(0);
+        sub.setSubscribersCount(0);
+        sub.setModifiedTime(0);
+    }
+
+    private static void resetItem(Item item) {
+        item.setId(0);
+        item.setTitle(null);
+        item.setBody(null);
+        item.setAuthor(null);
+        item.setUri(null);
+        item.setCreatedTime(0);
+        item.setModifiedTime(0);
+    }
+
+    private int read() throws IOException {
+        if (this.buffPos == this.buffLimit) {
+            int len = this.in.read(this.buff, 0, this.buff.length);
+            if (len <= 0) {
+                return EOF;
+            }
+            this.buffPos = 0;
+            this.buffLimit = len;
+        }
+        this.position++;
+        return this.buff[this.buffPos++];
+    }
+
+    private int peek() throws IOException {
+        int c = readSkipWhitespace();
+        if (c != EOF) {
+            this.buffPos--;
+            this.position--;
+        }
+        return c;
+    }
+
+    private int readSkipWhitespace() throws IOException {
+        int c = read();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            c = read();
+        }
+        return c;
+    }
+
+    private void expect(char expected) throws IOException, ParseException {
+        int c = readSkipWhitespace();
+        if (c != expected) {
+            throw unexpected(c);
+        }
+    }
+
+    private boolean skipIfNext(char expected) throws IOException {
+        if (peek() == expected) {
+            read();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean skipIfNull() throws IOException, ParseException {
+        if (peek() != 'n') {
+            return false;
+        }
+        skipLiteral();
+        return true;
+    }
+
+    private ParseException unexpected(int c) {
+        if (c == EOF) {
+            return new ParseException(this.position,
+                ParseException.ERROR_UNEXPECTED_EXCEPTION, null);
+        }
+        return new ParseException(this.position,
+            ParseException.ERROR_UNEXPECTED_CHAR, Character.valueOf((char) c));
+    }
+
+    /**
+     * reads an object key and the following ':', returns its index in
+     * keys or -1.
+     */
+    private int readKey(String[] keys) throws IOException, ParseException {
+        expect('"');
+        readChars();
+        expect(':');
+        char[] cs = this.chars;
+        int len = this.charsLength;
+        for (int i = 0; i < keys.length; i++) {
+            String key = keys[i];
+            if (key.length() != len) {
+                continue;
+            }
+            int j = 0;
+            while (j < len && key.charAt(j) == cs[j]) {
+                j++;
+            }
+            if (j == len) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** reads the rest of a string after the opening quote into chars */
+    private void readChars() throws IOException, ParseException {
+        this.charsLength = 0;
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                c = read();
+                switch (c) {
+                case 'b': c = '\b'; break;
+                case 'f': c = '\f'; break;
+                case 'n': c = '\n'; break;
+                case 'r': c = '\r'; break;
+                case 't': c = '\t'; break;
+                case 'u':
+                    int u = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int h = Character.digit(read(), 16);
+                        if (h < 0) {
+                            throw unexpected(c);
+                        }
+                        u = (u << 4) | h;
+                    }
+                    c = u;
+                    break;
+                case '"':
+                case '\\':
+                case '/':
+                    break;
+                default:
+                    throw unexpected(c);
+                }
+            } else if (c == EOF) {
+                throw unexpected(c);
+            }
+            if (this.charsLength == this.chars.length) {
+                char[] cs = new char[this.chars.length * 2];
+                System.arraycopy(this.chars, 0, cs, 0, this.charsLength);
+                this.chars = cs;
+            }
+            this.chars[this.charsLength++] = (char) c;
+        }
+    }
+
+    /** reads a string, number or literal value as a trimmed string */
+    private String readString() throws IOException, ParseException {
+        int c = peek();
+        if (c == '"') {
+            read();
+            readChars();
+            int start = 0;
+            int end = this.charsLength;
+            while (start < end && this.chars[start] <= ' ') {
+                start++;
+            }
+            while (end > start && this.chars[end - 1] <= ' ') {
+                end--;
+            }
+            return new String(this.chars, start, end - start);
+        } else if (c == 'n') {
+            skipLiteral();
+            return null;
+        } else if (c == '{' || c == '[') {
+            skipValue();
+            return null;
+        }
+        this.charsLength = 0;
+        while (true) {
+            c = peekRaw();
+            if (c == ',' || c == '}' || c == ']' || c == EOF
+                    || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                break;
+            }
+            read();
+            if (this.charsLength == this.chars.length) {
+                char[] cs = new char[this.chars.length * 2];
+                System.arraycopy(this.chars, 0, cs, 0, this.charsLength);
+                this.chars = cs;
+            }
+            this.chars[this.charsLength++] = (char) c;
+        }
+        return new String(this.chars, 0, this.charsLength);
+    }
+
+    /**
+     * reads a number, a quoted number, true/false or null as long.
+     * fractions are truncated, unparsable values are 0.
+     */
+    private long readLong() throws IOException, ParseException {
+        int c = peek();
+        boolean quoted = false;
+        if (c == '"') {
+            read();
+            quoted = true;
+        } else if (c == 'n' || c == 't' || c == 'f') {
+            return skipLiteral() ? 1: 0;
+        } else if (c == '{' || c == '[') {
+            skipValue();
+            return 0;
+        }
+
+        long value = 0;
+        boolean negative = false;
+        boolean valid = true;
+        boolean digits = true;
+        while (true) {
+            c = peekRaw();
+            if (quoted) {
+                read();
+                if (c == '"') {
+                    break;
+                } else if (c == EOF) {
+                    throw unexpected(c);
+                } else if (c == '\\') {
+                    // NOTE: escaped number, not expected from the api
+                    this.buffPos--;
+                    this.position--;
+                    readChars();
+                    return 0;
+                }
+            } else if ((c >= '0' && c <= '9') || c == '-' || c == '+'
+                    || c == '.' || c == 'e' || c == 'E') {
+                read();
+            } else {
+                break;
+            }
+            if (c >= '0' && c <= '9') {
+                if (digits) {
+                    value = value * 10 + (c - '0');
+                }
+            } else if (c == '-' && value == 0 && digits) {
+                negative = true;
+            } else if (c == '.' || c == 'e' || c == 'E') {
+                // NOTE: truncate fraction, exponent is not used by the api
+                digits = false;
+            } else if (c != '+' && c != ' ') {
+                valid = false;
+            }
+        }
+        if (!valid) {
+            return 0;
+        }
+        return negative ? -value: value;
+    }
+
+    private int peekRaw() throws IOException {
+        int c = read();
+        if (c != EOF) {
+            this.buffPos--;
+            this.position--;
+        }
+        return c;
+    }
+
+    /** skips true, false or null, returns true if it was true */
+    private boolean skipLiteral() throws IOException, ParseException {
+        int c = readSkipWhitespace();
+        String literal;
+        if (c == 't') {
+            literal = "true";
+        } else if (c == 'f') {
+            literal = "false";
+        } else if (c == 'n') {
+            literal = "null";
+        } else {
+            throw unexpected(c);
+        }
+        for (int i = 1; i < literal.length(); i++) {
+            c = read();
+            if (c != literal.charAt(i)) {
+                throw unexpected(c);
+            }
+        }
+        return (literal.charAt(0) == 't');
+    }
+
+    private void skipValue() throws IOException, ParseException {
+        int c = peek();
+        switch (c) {
+        case '"':
+            read();
+            readChars();
+            break;
+        case '{':
+            read();
+            if (!skipIfNext('}')) {
+                do {
+                    expect('"');
+                    readChars();
+                    expect(':');
+                    skipValue();
+                } while (skipIfNext(','));
+                expect('}');
+            }
+            break;
+        case '[':
+            read();
+            if (!skipIfNext(']')) {
+                do {
+                    skipValue();
+                } while (skipIfNext(','));
+                expect(']');
+            }
+            break;
+        case 't':
+        case 'f':
+        case 'n':
+            skipLiteral();
+            break;
+        default:
+            readLong();
+        }
+    }
+}
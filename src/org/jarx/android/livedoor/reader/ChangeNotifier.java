@@ -0,0 +1,148 @@
+package org.jarx.android.livedoor.reader;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Coalesces the change notifications of ReaderProvider.
+ *
+ * Changes are collected per table uri. A change after a quiet window is
+ * sent at once, later changes in the window are sent together when it
+ * closes: one notifyChange per table, one ACTION_SYNC_SUBS_FINISHED
+ * broadcast if subscriptions were inserted, and one
+ * ACTION_SYNC_SUB_FINISHED broadcast for the subscriptions item-synced.
+ */
+final class ChangeNotifier {
+
+    static final long WINDOW_MILLIS = 500;
+
+    private static final String TAG = "ChangeNotifier";
+
+    private static ChangeNotifier instance;
+
+    static synchronized ChangeNotifier getInstance(Context context) {
+        if (instance == null) {
+            instance = new ChangeNotifier(
+                new ContextSink(context.getApplicationContext()));
+        }
+        return instance;
+    }
+
+    /** receives the coalesced changes */
+    interface Sink {
+        void notifyChange(Uri uri);
+        void sendBroadcast(Intent intent);
+    }
+
+    private static class ContextSink implements Sink {
+
+        private final Context context;
+
+        private ContextSink(Context context) {
+            this.context = context;
+        }
+
+        public void notifyChange(Uri uri) {
+            this.context.getContentResolver().notifyChange(uri, null);
+        }
+
+        public void sendBroadcast(Intent intent) {
+            this.context.sendBroadcast(intent);
+        }
+    }
+
+    private final Sink sink;
+    private final ScheduledExecutorService executor
+        = Executors.newSingleThreadScheduledExecutor();
+    private final Set<Uri> pendingUris = new LinkedHashSet<Uri>();
+    private boolean pendingSubsInserted;
+    private final Set<Long> pendingSubIds = new LinkedHashSet<Long>();
+    private int pendingSyncCount;
+    private boolean flushScheduled;
+    private long lastFlushTime;
+
+    ChangeNotifier(Sink sink) {
+        this.sink = sink;
+    }
+
+    synchronized void notifyChange(Uri contentUri) {
+        this.pendingUris.add(contentUri);
+        scheduleFlush();
+    }
+
+    synchronized void subsInserted() {
+        this.pendingSubsInserted = true;
+        scheduleFlush();
+    }
+
+    /** count items of the subscription were stored by a sync */
+    synchronized void subSynced(long subId, int count) {
+        this.pendingSubIds.add(subId);
+        this.pendingSyncCount += count;
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (this.flushScheduled) {
+            return;
+        }
+        this.flushScheduled = true;
+        long delay = Math.max(
+            this.lastFlushTime + WINDOW_MILLIS - SystemClock.uptimeMillis(), 0);
+        this.executor.schedule(new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "notify failed", e);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        List<Uri> uris;
+        boolean subsInserted;
+        long[] subIds;
+        int syncCount;
+        synchronized (this) {
+            uris = new ArrayList<Uri>(this.pendingUris);
+            subsInserted = this.pendingSubsInserted;
+            subIds = new long[this.pendingSubIds.size()];
+            int i = 0;
+            for (Long subId: this.pendingSubIds) {
+                subIds[i++] = subId;
+            }
+            syncCount = this.pendingSyncCount;
+            this.pendingUris.clear();
+            this.pendingSubsInserted = false;
+            this.pendingSubIds.clear();
+            this.pendingSyncCount = 0;
+            this.flushScheduled = false;
+            this.lastFlushTime = SystemClock.uptimeMillis();
+        }
+        for (Uri uri: uris) {
+            this.sink.notifyChange(uri);
+        }
+        if (subsInserted) {
+            this.sink.sendBroadcast(
+                new Intent(ReaderService.ACTION_SYNC_SUBS_FINISHED));
+        }
+        if (subIds.length > 0) {
+            Intent intent = new Intent(ReaderService.ACTION_SYNC_SUB_FINISHED);
+            intent.putExtra(ReaderService.EXTRA_SUB_IDS, subIds);
+            intent.putExtra(ReaderService.EXTRA_SYNC_COUNT, syncCount);
+            this.sink.sendBroadcast(intent);
+        }
+    }
+}
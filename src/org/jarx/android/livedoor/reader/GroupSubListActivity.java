@@ -11,7 +11,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.database.Cursor;
-import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
@@ -73,6 +72,7 @@ public class GroupSubListActivity extends ExpandableListActivity
 
         IntentFilter filter = new IntentFilter();
         filter.addAction(ReaderService.ACTION_SYNC_SUBS_FINISHED);
+        filter.addAction(ReaderService.ACTION_SYNC_SUB_FINISHED);
         filter.addAction(ReaderService.ACTION_UNREAD_MODIFIED);
         registerReceiver(this.refreshReceiver, filter);
 
@@ -284,12 +284,8 @@ public class GroupSubListActivity extends ExpandableListActivity
 
             titleView.setText(sub.getTitle() + " (" + sub.getUnreadCount() + ")");
             ratingBar.setRating(sub.getRate());
-            Bitmap icon = sub.getIcon(GroupSubListActivity.this);
-            if (icon == null) {
-                iconView.setImageResource(R.drawable.item_read);
-            } else {
-                iconView.setImageBitmap(icon);
-            }
+            IconCache.getInstance(GroupSubListActivity.this).bind(iconView, sub.getId(),
+                R.drawable.item_read);
 
             StringBuilder buff = new StringBuilder(64);
             buff.append(sub.getSubscribersCount());
@@ -0,0 +1,125 @@
+package org.jarx.android.livedoor.reader;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Subscription icons stored once per content, keyed by SHA-1 of the PNG.
+ */
+public final class Icon implements BaseColumns {
+
+    public static final String TABLE_NAME = "icon";
+
+    public static final Uri CONTENT_URI
+        = Uri.parse(ReaderProvider.ICON_CONTENT_URI_NAME);
+
+    public static final String _KEY = "key";
+    public static final String _DATA = "data";
+
+    public static final String[] SELECT_DATA = {_DATA};
+
+    public static final String SQL_CREATE_TABLE
+        = "create table if not exists " + TABLE_NAME + " ("
+        + _ID + " integer primary key,"
+        + _KEY + " text unique,"
+        + _DATA + " blob"
+        + ")";
+
+    public static String[] sqlForUpgrade(int oldVersion, int newVersion) {
+        if (oldVersion < 8) {
+            return new String[] {SQL_CREATE_TABLE};
+        }
+        return new String[0];
+    }
+
+    /**
+     * moves the icon blobs of subscription rows into the icon table,
+     * runs after the icon table and subscription.icon_key exist.
+     */
+    static void upgradeSubscriptionIcons(SQLiteDatabase db,
+            int oldVersion, int newVersion) {
+        if (oldVersion >= 8) {
+            return;
+        }
+        Cursor cursor = db.query(Subscription.TABLE_NAME,
+            new String[]{Subscription._ID, Subscription._ICON},
+            Subscription._ICON + " is not null", null, null, null, null);
+        try {
+            ContentValues iconValues = new ContentValues();
+            ContentValues subValues = new ContentValues();
+            while (cursor.moveToNext()) {
+                byte[] data = cursor.getBlob(1);
+                String key = keyOf(data);
+                iconValues.put(_KEY, key);
+                iconValues.put(_DATA, data);
+                db.insertWithOnConflict(TABLE_NAME, null, iconValues,
+                    SQLiteDatabase.CONFLICT_IGNORE);
+                subValues.put(Subscription._ICON_KEY, key);
+                db.update(Subscription.TABLE_NAME, subValues,
+                    Subscription._ID + " = " + cursor.getLong(0), null);
+            }
+        } finally {
+            cursor.close();
+        }
+        // PENDING: sqlite3 not supported drop column, the old column stays null
+        db.execSQL("update " + Subscription.TABLE_NAME
+            + " set " + Subscription._ICON + " = null");
+    }
+
+    public static String keyOf(byte[] data) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] digest = md.digest(data);
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = Character.forDigit((digest[i] >> 4) & 0xf, 16);
+            hex[i * 2 + 1] = Character.forDigit(digest[i] & 0xf, 16);
+        }
+        return new String(hex);
+    }
+
+    public static Uri keyUri(String key) {
+        return Uri.withAppendedPath(CONTENT_URI, key);
+    }
+
+    /** returns PNG data of the subscription icon, or null */
+    public static byte[] loadData(ContentResolver cr, long subId) {
+        Uri subUri = ContentUris.withAppendedId(Subscription.CONTENT_URI, subId);
+        String key = null;
+        Cursor cursor = cr.query(subUri, Subscription.SELECT_ICON_KEY,
+            null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                key = cursor.getString(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (key == null) {
+            return null;
+        }
+        cursor = cr.query(keyUri(key), SELECT_DATA, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getBlob(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        return null;
+    }
+
+    private Icon() {
+    }
+}
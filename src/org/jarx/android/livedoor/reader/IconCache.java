@@ -0,0 +1,213 @@
+package org.jarx.android.livedoor.reader;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.ImageView;
+
+/**
+ * Process wide LRU cache of decoded subscription icons, bounded by
+ * bitmap bytes. Icons are decoded off the UI thread and bound to the
+ * ImageView when ready.
+ */
+public class IconCache {
+
+    private static final int ICON_SIZE_DIP = 32;
+    private static final int MAX_BYTES = 2 * 1024 * 1024;
+
+    private static IconCache instance;
+
+    public static synchronized IconCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new IconCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private final Context context;
+    private final int iconSize;
+    private final int maxBytes;
+    private final LinkedHashMap<Long, Bitmap> icons
+        = new LinkedHashMap<Long, Bitmap>(64, 0.75f, true);
+    private final Set<Long> noIcons = new HashSet<Long>();
+    private final Set<Long> loading = new HashSet<Long>();
+    private final Set<Long> staleLoading = new HashSet<Long>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private int bytes;
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    private IconCache(Context context) {
+        this.context = context;
+        float density = context.getResources().getDisplayMetrics().density;
+        this.iconSize = (int) (ICON_SIZE_DIP * density + 0.5f);
+        this.maxBytes = (int) Math.min(MAX_BYTES,
+            Runtime.getRuntime().maxMemory() / 16);
+    }
+
+    /**
+     * binds the cached icon to view, or the default resource while the
+     * icon is loaded.
+     */
+    public void bind(ImageView view, long subId, int defaultResId) {
+        Bitmap icon;
+        boolean missing;
+        synchronized (this) {
+            icon = this.icons.get(subId);
+            missing = this.noIcons.contains(subId);
+            if (icon != null || missing) {
+                this.hitCount++;
+            } else {
+                this.missCount++;
+            }
+        }
+        view.setTag(R.id.icon, subId);
+        if (icon != null) {
+            view.setImageBitmap(icon);
+            return;
+        }
+        view.setImageResource(defaultResId);
+        if (!missing) {
+            load(view, subId);
+        }
+    }
+
+    public synchronized void invalidate(long subId) {
+        if (this.loading.contains(subId)) {
+            this.staleLoading.add(subId);
+        }
+        this.noIcons.remove(subId);
+        Bitmap icon = this.icons.remove(subId);
+        if (icon != null) {
+            this.bytes -= sizeOf(icon);
+        }
+    }
+
+    public synchronized void clear() {
+        this.staleLoading.addAll(this.loading);
+        this.icons.clear();
+        this.noIcons.clear();
+        this.bytes = 0;
+    }
+
+    public synchronized int getHitCount() {
+        return this.hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return this.missCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    public synchronized int getBytes() {
+        return this.bytes;
+    }
+
+    private void load(final ImageView view, final long subId) {
+        synchronized (this) {
+            if (!this.loading.add(subId)) {
+                // NOTE: another row is loading it, rebind after that task
+                this.executor.execute(new Runnable() {
+                    public void run() {
+                        rebindLater(view, subId);
+                    }
+                });
+                return;
+            }
+        }
+        this.executor.execute(new Runnable() {
+            public void run() {
+                Bitmap icon = null;
+                try {
+                    icon = decode(subId);
+                } catch (OutOfMemoryError e) {
+                    // NOTE: ignore, display no icon
+                }
+                put(subId, icon);
+                rebindLater(view, subId);
+            }
+        });
+    }
+
+    private void rebindLater(final ImageView view, final long subId) {
+        this.handler.post(new Runnable() {
+            public void run() {
+                Object tag = view.getTag(R.id.icon);
+                if (tag == null || ((Long) tag) != subId) {
+                    return;
+                }
+                Bitmap icon;
+                synchronized (IconCache.this) {
+                    icon = IconCache.this.icons.get(subId);
+                }
+                if (icon != null) {
+                    view.setImageBitmap(icon);
+                }
+            }
+        });
+    }
+
+    private synchronized void put(long subId, Bitmap icon) {
+        this.loading.remove(subId);
+        if (this.staleLoading.remove(subId)) {
+            // NOTE: invalidated while decoding, load again on next bind
+            return;
+        }
+        if (icon == null) {
+            this.noIcons.add(subId);
+            return;
+        }
+        Bitmap old = this.icons.put(subId, icon);
+        if (old != null) {
+            this.bytes -= sizeOf(old);
+        }
+        this.bytes += sizeOf(icon);
+        Iterator<Map.Entry<Long, Bitmap>> it = this.icons.entrySet().iterator();
+        while (this.bytes > this.maxBytes && it.hasNext()) {
+            Map.Entry<Long, Bitmap> e = it.next();
+            if (e.getKey() == subId) {
+                continue;
+            }
+            this.bytes -= sizeOf(e.getValue());
+            it.remove();
+            this.evictionCount++;
+        }
+    }
+
+    private Bitmap decode(long subId) {
+        byte[] data = Icon.loadData(this.context.getContentResolver(), subId);
+        if (data == null) {
+            return null;
+        }
+
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+        int sampleSize = 1;
+        while (opts.outWidth / (sampleSize * 2) >= this.iconSize
+                && opts.outHeight / (sampleSize * 2) >= this.iconSize) {
+            sampleSize *= 2;
+        }
+        opts = new BitmapFactory.Options();
+        opts.inSampleSize = sampleSize;
+        return BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+    }
+
+    private static int sizeOf(Bitmap icon) {
+        return icon.getRowBytes() * icon.getHeight();
+    }
+}
@@ -0,0 +1,204 @@
+package org.jarx.android.livedoor.reader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.Log;
+
+/**
+ * Downloads subscription icons off the subs sync path.
+ *
+ * Icons are fetched once per url with at most
+ * ApiClient.MAX_ICON_CONNECTIONS requests in flight, and written back
+ * to every subscription sharing the url in batches.
+ */
+public class IconFetcher {
+
+    private static final String TAG = "IconFetcher";
+    private static final int BATCH_SIZE = 16;
+    private static final int DEFAULT_TIMEOUT = 10 * 1000;
+    private static final int MIN_TIMEOUT = 2 * 1000;
+    private static final int HOST_DISABLED = -1;
+    private static final long AWAIT_MINUTES = 5;
+
+    private final Context context;
+    private final ApiClient client;
+    private final Map<String, List<Long>> subIds
+        = new LinkedHashMap<String, List<Long>>();
+    private final Map<String, Integer> hostTimeouts
+        = new HashMap<String, Integer>();
+    private ArrayList<ContentProviderOperation> pending
+        = new ArrayList<ContentProviderOperation>();
+    private ExecutorService executor;
+
+    public IconFetcher(Context context, ApiClient client) {
+        this.context = context;
+        this.client = client;
+    }
+
+    public synchronized void add(long subId, String iconUri) {
+        if (iconUri == null || iconUri.length() == 0) {
+            return;
+        }
+        List<Long> ids = this.subIds.get(iconUri);
+        if (ids == null) {
+            ids = new ArrayList<Long>(1);
+            this.subIds.put(iconUri, ids);
+        }
+        ids.add(subId);
+    }
+
+    public synchronized void start() {
+        if (this.executor != null || this.subIds.isEmpty()) {
+            return;
+        }
+        Log.d(TAG, "fetch " + this.subIds.size() + " icons");
+        this.executor = Executors.newFixedThreadPool(
+            ApiClient.MAX_ICON_CONNECTIONS);
+        for (Map.Entry<String, List<Long>> e: this.subIds.entrySet()) {
+            this.executor.execute(new FetchTask(e.getKey(), e.getValue()));
+        }
+        this.subIds.clear();
+        this.executor.shutdown();
+    }
+
+    public void await() {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = this.executor;
+        }
+        if (executor == null) {
+            return;
+        }
+        try {
+            if (!executor.awaitTermination(AWAIT_MINUTES, TimeUnit.MINUTES)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+        }
+        flush();
+    }
+
+    private void put(List<Long> ids, byte[] icon) {
+        boolean full;
+        synchronized (this) {
+            String key = Icon.keyOf(icon);
+            this.pending.add(ContentProviderOperation.newInsert(Icon.CONTENT_URI)
+                .withValue(Icon._KEY, key).withValue(Icon._DATA, icon).build());
+            for (long id: ids) {
+                Uri uri = ContentUris.withAppendedId(Subscription.CONTENT_URI, id);
+                this.pending.add(ContentProviderOperation.newUpdate(uri)
+                    .withValue(Subscription._ICON_KEY, key).build());
+            }
+            full = (this.pending.size() >= BATCH_SIZE);
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        ArrayList<ContentProviderOperation> ops;
+        synchronized (this) {
+            if (this.pending.isEmpty()) {
+                return;
+            }
+            ops = this.pending;
+            this.pending = new ArrayList<ContentProviderOperation>();
+        }
+        try {
+            this.context.getContentResolver().applyBatch(
+                ReaderProvider.AUTHORITY, ops);
+        } catch (RemoteException e) {
+            Log.w(TAG, "icon write failed", e);
+        } catch (OperationApplicationException e) {
+            Log.w(TAG, "icon write failed", e);
+        }
+    }
+
+    private int getTimeout(String host) {
+        synchronized (this.hostTimeouts) {
+            Integer timeout = this.hostTimeouts.get(host);
+            return (timeout == null) ? DEFAULT_TIMEOUT: timeout;
+        }
+    }
+
+    private void timedOut(String host, int timeout) {
+        synchronized (this.hostTimeouts) {
+            // NOTE: a slow host gets shorter timeouts, then is skipped
+            int next = (timeout <= MIN_TIMEOUT)
+                ? HOST_DISABLED: Math.max(timeout / 2, MIN_TIMEOUT);
+            this.hostTimeouts.put(host, next);
+        }
+    }
+
+    private byte[] fetch(String iconUri, int timeout) throws IOException {
+        Bitmap icon;
+        InputStream in = this.client.doGetInputStream(iconUri, timeout);
+        try {
+            icon = BitmapFactory.decodeStream(in);
+        } finally {
+            in.close();
+        }
+        if (icon == null) {
+            return null;
+        }
+        int size = icon.getWidth() * icon.getHeight() * 2;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        icon.compress(Bitmap.CompressFormat.PNG, 100, out);
+        out.flush();
+        out.close();
+        icon.recycle();
+        return out.toByteArray();
+    }
+
+    private class FetchTask implements Runnable {
+
+        private final String iconUri;
+        private final List<Long> ids;
+
+        private FetchTask(String iconUri, List<Long> ids) {
+            this.iconUri = iconUri;
+            this.ids = ids;
+        }
+
+        public void run() {
+            String host = Uri.parse(this.iconUri).getHost();
+            int timeout = getTimeout(host);
+            if (timeout == HOST_DISABLED) {
+                return;
+            }
+            try {
+                byte[] icon = fetch(this.iconUri, timeout);
+                if (icon != null) {
+                    put(this.ids, icon);
+                }
+            } catch (InterruptedIOException e) {
+                Log.d(TAG, "icon timed out " + this.iconUri);
+                timedOut(host, timeout);
+            } catch (IOException e) {
+                // NOTE: ignore error for icon
+            } catch (RuntimeException e) {
+                Log.w(TAG, "icon fetch failed " + this.iconUri, e);
+            }
+        }
+    }
+}
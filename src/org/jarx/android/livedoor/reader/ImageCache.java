@@ -0,0 +1,188 @@
+package org.jarx.android.livedoor.reader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Disk cache of the images in item bodies, one file per image url.
+ *
+ * Files are named by the SHA-1 of the url. Item bodies keep the http urls,
+ * ItemActivity serves the cached file when the WebView loads one. The
+ * last modified time of a file is its last use, trim() removes the least
+ * recently used files first.
+ */
+public class ImageCache {
+
+    public static final String DIR_NAME = "images";
+    public static final int MAX_IMAGE_BYTES = 1024 * 1024;
+
+    private static final String TAG = "ImageCache";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final Pattern IMG_SRC = Pattern.compile(
+        "(<img\\b[^>]*?\\ssrc\\s*=\\s*)(\"[^\"]*\"|'[^']*'|[^\\s\"'>]+)",
+        Pattern.CASE_INSENSITIVE);
+
+    private static ImageCache instance;
+
+    public static synchronized ImageCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ImageCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private final File dir;
+
+    private ImageCache(Context context) {
+        this.dir = context.getDir(DIR_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static String keyOf(String url) {
+        try {
+            return Icon.keyOf(url.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** returns the http image urls of the img tags in html */
+    public static List<String> imageUrls(String html) {
+        List<String> urls = new ArrayList<String>();
+        if (html == null) {
+            return urls;
+        }
+        Matcher m = IMG_SRC.matcher(html);
+        while (m.find()) {
+            String url = srcUrl(m.group(2));
+            if (url != null) {
+                urls.add(url);
+            }
+        }
+        return urls;
+    }
+
+    private static String srcUrl(String src) {
+        char c = src.charAt(0);
+        if (c == '"' || c == '\'') {
+            src = src.substring(1, src.length() - 1);
+        }
+        src = src.trim().replace("&amp;", "&");
+        if (src.startsWith("http://") || src.startsWith("https://")) {
+            return src;
+        }
+        return null;
+    }
+
+    public boolean contains(String url) {
+        return fileOf(keyOf(url)).exists();
+    }
+
+    /**
+     * opens the cached image of url, null if it is not cached. the open
+     * is the use for LRU.
+     */
+    public InputStream openImage(String url) {
+        File file = fileOf(keyOf(url));
+        try {
+            InputStream in = new FileInputStream(file);
+            file.setLastModified(System.currentTimeMillis());
+            return in;
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * stores the image read from in, an image larger than
+     * MAX_IMAGE_BYTES is not stored. returns the stored bytes. in is
+     * expected to stop at MAX_IMAGE_BYTES, see
+     * ApiClient.doGetInputStream(url, timeout, maxLength).
+     */
+    public long put(String url, InputStream in) throws IOException {
+        File file = fileOf(keyOf(url));
+        File tmp = new File(file.getPath() + TMP_SUFFIX
+            + Thread.currentThread().getId());
+        OutputStream out = new FileOutputStream(tmp);
+        long size = 0;
+        boolean stored = false;
+        try {
+            byte[] buff = new byte[8192];
+            int len;
+            while ((len = in.read(buff)) != -1) {
+                size += len;
+                if (size > MAX_IMAGE_BYTES) {
+                    return 0;
+                }
+                out.write(buff, 0, len);
+            }
+            out.close();
+            out = null;
+            stored = (size > 0 && tmp.renameTo(file));
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+            if (!stored) {
+                tmp.delete();
+            }
+        }
+        return stored ? size: 0;
+    }
+
+    /**
+     * removes the least recently used files until the cache fits in
+     * maxBytes, returns the removed bytes.
+     */
+    public synchronized long trim(long maxBytes) {
+        File[] files = this.dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        // NOTE: times are read once, open() touches files while sorting
+        final long[] lastModified = new long[files.length];
+        long[] sizes = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        long total = 0;
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            sizes[i] = files[i].length();
+            order[i] = i;
+            total += sizes[i];
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                long t1 = lastModified[i1];
+                long t2 = lastModified[i2];
+                return (t1 < t2) ? -1: ((t1 == t2) ? 0: 1);
+            }
+        });
+        long removed = 0;
+        for (int i = 0; i < order.length && total - removed > maxBytes; i++) {
+            if (files[order[i]].delete()) {
+                removed += sizes[order[i]];
+            }
+        }
+        if (removed > 0) {
+            Log.d(TAG, "trim removed " + removed + " of " + total + " bytes");
+        }
+        return removed;
+    }
+
+    private File fileOf(String key) {
+        return new File(this.dir, key);
+    }
+}
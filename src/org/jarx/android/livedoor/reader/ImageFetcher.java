@@ -0,0 +1,144 @@
+package org.jarx.android.livedoor.reader;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Downloads the images of newly stored item bodies into the ImageCache,
+ * as a stage of the sync.
+ *
+ * Images are fetched once per url with at most
+ * ApiClient.MAX_IMAGE_CONNECTIONS requests in flight, and the cache is
+ * trimmed to the preferred size when done.
+ */
+public class ImageFetcher {
+
+    private static final String TAG = "ImageFetcher";
+    private static final int MAX_URLS = 500;
+    private static final int TIMEOUT = 15 * 1000;
+    private static final long AWAIT_MINUTES = 10;
+
+    private final Context context;
+    private final ApiClient client;
+    private final ImageCache cache;
+    private final Set<String> urls = new LinkedHashSet<String>();
+    private final Set<String> disabledHosts = new HashSet<String>();
+    private final AtomicLong fetchedBytes = new AtomicLong();
+    private ExecutorService executor;
+
+    public ImageFetcher(Context context, ApiClient client) {
+        this.context = context;
+        this.client = client;
+        this.cache = ImageCache.getInstance(context);
+    }
+
+    /** adds the images in body not cached yet */
+    public void add(String body) {
+        for (String url: ImageCache.imageUrls(body)) {
+            synchronized (this) {
+                if (this.urls.size() >= MAX_URLS) {
+                    return;
+                }
+                if (this.urls.contains(url)) {
+                    continue;
+                }
+            }
+            if (!this.cache.contains(url)) {
+                synchronized (this) {
+                    this.urls.add(url);
+                }
+            }
+        }
+    }
+
+    public synchronized void start() {
+        if (this.executor != null || this.urls.isEmpty()) {
+            return;
+        }
+        Log.d(TAG, "fetch " + this.urls.size() + " images");
+        this.executor = Executors.newFixedThreadPool(
+            ApiClient.MAX_IMAGE_CONNECTIONS);
+        for (String url: this.urls) {
+            this.executor.execute(new FetchTask(url));
+        }
+        this.urls.clear();
+        this.executor.shutdown();
+    }
+
+    public void await() {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = this.executor;
+        }
+        if (executor == null) {
+            return;
+        }
+        try {
+            if (!executor.awaitTermination(AWAIT_MINUTES, TimeUnit.MINUTES)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+        }
+        Log.d(TAG, "fetched " + this.fetchedBytes.get() + " bytes");
+        this.cache.trim(ReaderPreferences.getImageCacheBytes(this.context));
+    }
+
+    private boolean isDisabled(String host) {
+        synchronized (this.disabledHosts) {
+            return this.disabledHosts.contains(host);
+        }
+    }
+
+    private void disable(String host) {
+        synchronized (this.disabledHosts) {
+            this.disabledHosts.add(host);
+        }
+    }
+
+    private class FetchTask implements Runnable {
+
+        private final String url;
+
+        private FetchTask(String url) {
+            this.url = url;
+        }
+
+        public void run() {
+            String host = Uri.parse(this.url).getHost();
+            if (host == null || isDisabled(host)) {
+                return;
+            }
+            try {
+                // NOTE: an image too large to cache aborts its request
+                InputStream in = ImageFetcher.this.client.doGetInputStream(
+                    this.url, TIMEOUT, ImageCache.MAX_IMAGE_BYTES);
+                try {
+                    ImageFetcher.this.fetchedBytes.addAndGet(
+                        ImageFetcher.this.cache.put(this.url, in));
+                } finally {
+                    in.close();
+                }
+            } catch (InterruptedIOException e) {
+                // NOTE: a slow host would hold the sync, skip its images
+                Log.d(TAG, "image timed out " + this.url);
+                disable(host);
+            } catch (IOException e) {
+                // NOTE: ignore error for image, shown online
+            } catch (RuntimeException e) {
+                Log.w(TAG, "image fetch failed " + this.url, e);
+            }
+        }
+    }
+}
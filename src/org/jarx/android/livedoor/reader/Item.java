@@ -1,8 +1,12 @@
 package org.jarx.android.livedoor.reader;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import android.content.ContentResolver;
 import android.database.Cursor;
 import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.provider.BaseColumns;
 import android.util.Log;
@@ -14,11 +18,28 @@ public class Item implements Serializable, BaseColumns {
 
     public static final Uri CONTENT_URI
         = Uri.parse(ReaderProvider.ITEM_CONTENT_URI_NAME);
+    public static final Uri SEARCH_CONTENT_URI
+        = Uri.parse(ReaderProvider.ITEM_SEARCH_CONTENT_URI_NAME);
+    public static final Uri UNREAD_COUNT_URI
+        = Uri.parse(ReaderProvider.ITEM_UNREAD_COUNT_CONTENT_URI_NAME);
+
+    // NOTE: database version 11 or later, one row of all unread items
+    public static final String UNREAD_COUNTER_TABLE_NAME = "unread_counter";
+
+    // NOTE: database version 9 or later
+    public static final String FTS_TABLE_NAME = "item_fts";
+    public static final String SEARCH_PARAM_KEYWORD = "q";
+    public static final String SEARCH_PARAM_SUBSCRIPTION_ID = "subscription_id";
+    public static final String PAGE_PARAM_BEFORE_ID = "before_id";
+    public static final String PAGE_PARAM_LIMIT = "limit";
+    public static final char SNIPPET_START = '\u0001';
+    public static final char SNIPPET_END = '\u0002';
 
     public static final String[] SELECT_ID = {_ID};
     public static final String[] SELECT_COUNT = {"count(" + _ID + ")"};
     public static final String[] SELECT_MAX_ID = {"max(" + _ID + ")", "count(" + _ID + ")"};
     public static final String[] SELECT_MIN_ID = {"min(" + _ID + ")", "count(" + _ID + ")"};
+    public static final String[] SELECT_UNREAD_COUNT = {Subscription._UNREAD_COUNT};
 
     public static final String _SUBSCRIPTION_ID = "subscription_id";
     public static final String _URI = "uri";
@@ -28,6 +49,11 @@ public class Item implements Serializable, BaseColumns {
     public static final String _UNREAD = "unread";
     public static final String _CREATED_TIME = "created_time";
     public static final String _MODIFIED_TIME = "modified_time";
+    // NOTE: database version 10 or later
+    public static final String _SUMMARY = "summary";
+    // NOTE: search columns
+    public static final String _SNIPPET = "snippet";
+    public static final String _RANK = "rank";
 
     public static final String SQL_CREATE_TABLE
         = "create table if not exists " + TABLE_NAME + " ("
@@ -39,26 +65,274 @@ public class Item implements Serializable, BaseColumns {
         + _AUTHOR + " text,"
         + _UNREAD + " integer,"
         + _CREATED_TIME + " integer,"
-        + _MODIFIED_TIME + " integer"
+        + _MODIFIED_TIME + " integer,"
+        + _SUMMARY + " text"
         + ")";
 
-    public static final String[] INDEX_COLUMNS = {
+    // NOTE: list rows, without body
+    public static final String[] LIST_SELECT = {
+        _ID, _SUBSCRIPTION_ID, _URI, _TITLE, _SUMMARY, _AUTHOR, _UNREAD,
+        _CREATED_TIME, _MODIFIED_TIME
+    };
+
+    // NOTE: docid is the item _id, text is stored as asFtsText()
+    public static final String SQL_CREATE_FTS_TABLE
+        = "create virtual table " + FTS_TABLE_NAME + " using fts3("
+        + _TITLE + ", "
+        + _BODY
+        + ")";
+    public static final String SQL_CREATE_FTS_DELETE_TRIGGER
+        = "create trigger if not exists " + FTS_TABLE_NAME + "_delete"
+        + " after delete on " + TABLE_NAME + " begin"
+        + " delete from " + FTS_TABLE_NAME + " where docid = old." + _ID + ";"
+        + " end";
+    public static final String SQL_INSERT_FTS
+        = "insert into " + FTS_TABLE_NAME
+        + "(docid, " + _TITLE + ", " + _BODY + ") values (?, ?, ?)";
+
+    public static final String SQL_CREATE_UNREAD_COUNTER_TABLE
+        = "create table if not exists " + UNREAD_COUNTER_TABLE_NAME + " ("
+        + _ID + " integer primary key,"
+        + Subscription._UNREAD_COUNT + " integer"
+        + ")";
+    public static final String SQL_INIT_UNREAD_COUNTER
+        = "insert or replace into " + UNREAD_COUNTER_TABLE_NAME
+        + "(" + _ID + ", " + Subscription._UNREAD_COUNT + ")"
+        + " select 1, count(" + _ID + ") from " + TABLE_NAME
+        + " where " + _UNREAD + " = 1";
+    public static final String SQL_INIT_SUB_UNREAD_COUNTS
+        = "update " + Subscription.TABLE_NAME
+        + " set " + Subscription._UNREAD_COUNT + " = (select count("
+        + TABLE_NAME + "." + _ID + ") from " + TABLE_NAME
+        + " where " + TABLE_NAME + "." + _SUBSCRIPTION_ID
+        + " = " + Subscription.TABLE_NAME + "." + Subscription._ID
+        + " and " + TABLE_NAME + "." + _UNREAD + " = 1)";
+
+    // NOTE: unread counts follow the item rows, never recount them
+    public static final String[] SQL_CREATE_UNREAD_TRIGGERS = {
+        sqlCreateUnreadTrigger("insert", "insert",
+            "new." + _UNREAD + " = 1", "new", "+ 1"),
+        sqlCreateUnreadTrigger("delete", "delete",
+            "old." + _UNREAD + " = 1", "old", "- 1"),
+        sqlCreateUnreadTrigger("read", "update of " + _UNREAD,
+            "old." + _UNREAD + " = 1 and new." + _UNREAD + " is not 1",
+            "new", "- 1"),
+        sqlCreateUnreadTrigger("unread", "update of " + _UNREAD,
+            "new." + _UNREAD + " = 1 and old." + _UNREAD + " is not 1",
+            "new", "+ 1")
+    };
+
+    private static String sqlCreateUnreadTrigger(String name, String event,
+            String when, String row, String delta) {
+        String count = Subscription._UNREAD_COUNT;
+        return "create trigger if not exists " + TABLE_NAME + "_unread_" + name
+            + " after " + event + " on " + TABLE_NAME
+            + " when " + when + " begin"
+            + " update " + Subscription.TABLE_NAME
+            + " set " + count + " = ifnull(" + count + ", 0) " + delta
+            + " where " + Subscription._ID + " = " + row + "." + _SUBSCRIPTION_ID + ";"
+            + " update " + UNREAD_COUNTER_TABLE_NAME
+            + " set " + count + " = " + count + " " + delta
+            + " where " + _ID + " = 1;"
+            + " end";
+    }
+
+    // NOTE: offsets() has 4 numbers per matched term
+    private static final String SQL_RANK
+        = "length(offsets(" + FTS_TABLE_NAME + ")) - length(replace(offsets("
+        + FTS_TABLE_NAME + "), ' ', ''))";
+
+    public static final String[] SEARCH_SELECT = {
+        TABLE_NAME + "." + _ID + " as " + _ID,
         _SUBSCRIPTION_ID,
-        _TITLE,
+        _URI,
+        TABLE_NAME + "." + _TITLE + " as " + _TITLE,
+        _SUMMARY,
+        _AUTHOR,
         _UNREAD,
         _CREATED_TIME,
-        _MODIFIED_TIME
+        _MODIFIED_TIME,
+        "snippet(" + FTS_TABLE_NAME + ", '" + SNIPPET_START + "', '"
+            + SNIPPET_END + "', '...') as " + _SNIPPET,
+        SQL_RANK + " as " + _RANK
     };
+    public static final String SEARCH_DEFAULT_ORDER
+        = _RANK + " desc, " + _ID + " desc";
+
+    // NOTE: lists are subscription_id = ? [and unread = 1] order by _id,
+    // the rowid at the end of each index keeps that order without sort
+    public static final String[] INDEX_COLUMNS = {
+        _SUBSCRIPTION_ID,
+        _UNREAD
+    };
+    public static final String SQL_CREATE_UNREAD_BY_SUB_ID_INDEX
+        = ReaderProvider.sqlCreateIndex(TABLE_NAME,
+            "idx_item_unread_by_sub_id", _SUBSCRIPTION_ID, _UNREAD);
 
     public static String[] sqlForUpgrade(int oldVersion, int newVersion) {
+        ArrayList<String> sqls = new ArrayList<String>(3);
         if (oldVersion < 6) {
-            return new String[] {
-                ReaderProvider.sqlCreateIndex(TABLE_NAME,
-                    "idx_item_unread_by_sub_id",
-                    new String[]{_SUBSCRIPTION_ID, _UNREAD})
-            };
+            sqls.add(SQL_CREATE_UNREAD_BY_SUB_ID_INDEX);
+        }
+        if (oldVersion < 9) {
+            sqls.add(SQL_CREATE_FTS_TABLE);
+            sqls.add(SQL_CREATE_FTS_DELETE_TRIGGER);
+        }
+        if (oldVersion < 10) {
+            sqls.add("alter table " + TABLE_NAME
+                + " add " + _SUMMARY + " text");
+        }
+        if (oldVersion < 11) {
+            sqls.add(SQL_CREATE_UNREAD_COUNTER_TABLE);
+            sqls.add(SQL_INIT_UNREAD_COUNTER);
+            sqls.add(SQL_INIT_SUB_UNREAD_COUNTS);
+            for (String sql: SQL_CREATE_UNREAD_TRIGGERS) {
+                sqls.add(sql);
+            }
+        }
+        if (oldVersion < 12) {
+            // NOTE: never used by a query, only slowed down the sync inserts
+            sqls.add(ReaderProvider.sqlDropIndex(TABLE_NAME, _TITLE));
+            sqls.add(ReaderProvider.sqlDropIndex(TABLE_NAME, _CREATED_TIME));
+            sqls.add(ReaderProvider.sqlDropIndex(TABLE_NAME, _MODIFIED_TIME));
+            sqls.add(SQL_CREATE_UNREAD_BY_SUB_ID_INDEX);
+        }
+        return sqls.toArray(new String[sqls.size()]);
+    }
+
+    /** fills summary of the existing items, runs after the column exists */
+    static void upgradeSummaries(SQLiteDatabase db,
+            int oldVersion, int newVersion) {
+        if (oldVersion >= 10) {
+            return;
+        }
+        final String[] columns = {_ID, _BODY};
+        SQLiteStatement stmt = db.compileStatement("update " + TABLE_NAME
+            + " set " + _SUMMARY + " = ? where " + _ID + " = ?");
+        try {
+            long lastId = Long.MAX_VALUE;
+            while (true) {
+                Cursor cursor = db.query(TABLE_NAME, columns,
+                    _ID + " < " + lastId, null, null, null,
+                    _ID + " desc", "200");
+                try {
+                    if (cursor.getCount() == 0) {
+                        break;
+                    }
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getLong(0);
+                        String summary = summaryOf(cursor.getString(1));
+                        if (summary == null) {
+                            continue;
+                        }
+                        stmt.bindString(1, summary);
+                        stmt.bindLong(2, lastId);
+                        stmt.execute();
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /** plain text head of the body, stored as summary */
+    public static String summaryOf(String body) {
+        if (body == null) {
+            return null;
+        }
+        // NOTE: @via twitter 140 / 2 chars
+        String summary = htmlAsPlainLine(body, 71);
+        if (summary.length() <= 70) {
+            return summary;
+        }
+        return summary.substring(0, 70) + "...";
+    }
+
+    /** indexes the existing items, runs after the fts table exists */
+    static void upgradeSearchIndex(SQLiteDatabase db,
+            int oldVersion, int newVersion) {
+        if (oldVersion >= 9) {
+            return;
+        }
+        final String[] columns = {_ID, _TITLE, _BODY};
+        SQLiteStatement stmt = db.compileStatement(SQL_INSERT_FTS);
+        try {
+            long lastId = Long.MAX_VALUE;
+            while (true) {
+                // NOTE: chunked, bodies do not fit a single cursor window
+                Cursor cursor = db.query(TABLE_NAME, columns,
+                    _ID + " < " + lastId, null, null, null,
+                    _ID + " desc", "200");
+                try {
+                    if (cursor.getCount() == 0) {
+                        break;
+                    }
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getLong(0);
+                        bindSearchText(stmt, lastId, cursor.getString(1),
+                            cursor.getString(2));
+                        stmt.executeInsert();
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /** binds SQL_INSERT_FTS parameters */
+    static void bindSearchText(SQLiteStatement stmt, long id, String title,
+            String body) {
+        stmt.bindLong(1, id);
+        title = asFtsText(title);
+        if (title == null) {
+            stmt.bindNull(2);
+        } else {
+            stmt.bindString(2, title);
+        }
+        body = asFtsText(htmlAsPlainText(body));
+        if (body == null) {
+            stmt.bindNull(3);
+        } else {
+            stmt.bindString(3, body);
+        }
+    }
+
+    public static Uri searchUri(String keyword, long subId) {
+        Uri.Builder builder = SEARCH_CONTENT_URI.buildUpon();
+        builder.appendQueryParameter(SEARCH_PARAM_KEYWORD, keyword);
+        if (subId > 0) {
+            builder.appendQueryParameter(SEARCH_PARAM_SUBSCRIPTION_ID,
+                Long.toString(subId));
         }
-        return new String[0];
+        return builder.build();
+    }
+
+    /** count of all unread items, kept by the unread triggers */
+    public static int countUnread(ContentResolver cr) {
+        Cursor cursor = cr.query(UNREAD_COUNT_URI, SELECT_UNREAD_COUNT,
+            null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0): 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** rows of uri older than beforeId (0 for the newest), _id desc paging */
+    public static Uri pageUri(Uri uri, long beforeId, int limit) {
+        Uri.Builder builder = uri.buildUpon();
+        if (beforeId > 0) {
+            builder.appendQueryParameter(PAGE_PARAM_BEFORE_ID,
+                Long.toString(beforeId));
+        }
+        builder.appendQueryParameter(PAGE_PARAM_LIMIT, Integer.toString(limit));
+        return builder.build();
     }
 
     private static final String TAG = "Item";
@@ -68,6 +342,7 @@ public class Item implements Serializable, BaseColumns {
     private String uri;
     private String title;
     private String body;
+    private String summary;
     private String author;
     private boolean unread;
     private long createdTime;
@@ -109,31 +384,31 @@ public class Item implements Serializable, BaseColumns {
     }
 
     public String getSummary() {
-        if (this.body == null) {
-            return "";
+        String summary = this.summary;
+        if (summary == null) {
+            if (this.body == null) {
+                return "";
+            }
+            summary = summaryOf(this.body);
         }
-        StringBuilder buff = new StringBuilder(256);
+        StringBuilder buff = new StringBuilder(128);
         long time = this.getCreatedOrModifiedTime();
         if (time > 0) {
             buff.append(formatTimeAgo(time));
         }
-
-        String summary = stripWhitespaces(htmlAsPlainText(this.body));
-        if (summary != null && summary.length() > 0) {
+        if (summary.length() > 0) {
             if (buff.length() > 0) {
                 buff.append(" | ");
             }
-            // NOTE: @via twitter 140 / 2 chars
-            if (summary.length() <= 70) {
-                buff.append(summary);
-            } else {
-                buff.append(summary.substring(0, 70));
-                buff.append("...");
-            }
+            buff.append(summary);
         }
         return new String(buff);
     }
 
+    public void setSummary(String summary) {
+        this.summary = summary;
+    }
+
     public String getUri() {
         return this.uri;
     }
@@ -190,6 +465,8 @@ public class Item implements Serializable, BaseColumns {
         private final int posUnread;
         private final int posCreatedTime;
         private final int posModifiedTime;
+        private final int posSnippet;
+        private final int posSummary;
 
         public FilterCursor(Cursor cursor) {
             this(cursor, null);
@@ -207,6 +484,8 @@ public class Item implements Serializable, BaseColumns {
             this.posUnread = getColumnIndex(Item._UNREAD);
             this.posCreatedTime = getColumnIndex(Item._CREATED_TIME);
             this.posModifiedTime = getColumnIndex(Item._MODIFIED_TIME);
+            this.posSnippet = getColumnIndex(Item._SNIPPET);
+            this.posSummary = getColumnIndex(Item._SUMMARY);
         }
 
         public Item getItem() {
@@ -215,7 +494,10 @@ public class Item implements Serializable, BaseColumns {
             item.setSubscriptionId(getLong(this.posSubscriptionId));
             item.setUri(getString(this.posUri));
             item.setTitle(getString(this.posTitle));
-            item.setBody(getString(this.posBody));
+            // NOTE: list queries select summary instead of body
+            item.setBody((this.posBody == -1) ? null: getString(this.posBody));
+            item.setSummary((this.posSummary == -1)
+                ? null: getString(this.posSummary));
             item.setAuthor(getString(this.posAuthor));
             item.setUnread(getInt(this.posUnread) == 1);
             item.setCreatedTime(getLong(this.posCreatedTime));
@@ -230,5 +512,10 @@ public class Item implements Serializable, BaseColumns {
         public boolean isUnread() {
             return (getInt(this.posUnread) == 1);
         }
+
+        /** html snippet of a search result, or null */
+        public String getSnippet() {
+            return (this.posSnippet == -1) ? null: getString(this.posSnippet);
+        }
     }
 }
@@ -1,7 +1,9 @@
 package org.jarx.android.livedoor.reader;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.util.HashSet;
+import java.io.InputStream;
+import java.net.URLConnection;
 import java.util.Set;
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -32,6 +34,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.view.animation.AlphaAnimation;
 import android.view.animation.Animation;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebViewClient;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
@@ -45,12 +48,17 @@ public class ItemActivity extends Activity
 
     private static final String TAG = "ItemActivity";
 
+    /** appended to the base where to find unread items */
+    static final String SQL_UNREAD_ONLY_WHERE = " and " + Item._UNREAD + " = 1";
+
     private Subscription sub;
     private Uri subUri;
     private ActivityHelper.Where baseWhere;
     private Item currentItem;
     private Item.FilterCursor itemsCursor;
-    private HashSet<Long> readItemIds;
+    private ReadJournal readJournal;
+    private long pendingReadId;
+    private ItemReadAhead readAhead;
     private ImageView pinView;
     private boolean pinOn;
     private ReaderService readerService;
@@ -98,17 +106,10 @@ public class ItemActivity extends Activity
         long itemId = 0;
         if (savedState != null) {
             itemId = savedState.getLong("itemId", 0);
-            long[] ids = savedState.getLongArray("readItemIds");
-            if (ids != null) {
-                this.readItemIds = new HashSet<Long>(ids.length * 2);
-                for (long id: ids) {
-                    this.readItemIds.add(id);
-                }
-            }
-        }
-        if (this.readItemIds == null) {
-            this.readItemIds = new HashSet<Long>(32);
+            this.pendingReadId = savedState.getLong("pendingReadId", 0);
         }
+        this.readJournal = ReadJournal.getInstance(this);
+        this.readAhead = new ItemReadAhead(this);
 
         Intent intent = getIntent();
         long subId = intent.getLongExtra(ActivityHelper.EXTRA_SUB_ID, 0);
@@ -239,28 +240,23 @@ public class ItemActivity extends Activity
     public void onPause() {
         super.onPause();
         saveReadItemId();
+        if (isFinishing()) {
+            journalPendingRead();
+        }
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        new Thread() {
-            public void run() {
-                destroyItems();
-            }
-        }.start();
+        this.readAhead.shutdown();
+        destroyItems();
         unbindService(this.serviceConn);
     }
 
     @Override
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        long[] ids = new long[this.readItemIds.size()];
-        int i = 0;
-        for (long id: this.readItemIds) {
-            ids[i++] = id;
-        }
-        outState.putLongArray("readItemIds", ids);
+        outState.putLong("pendingReadId", this.pendingReadId);
         if (this.currentItem != null) {
             outState.putLong("itemId", this.currentItem.getId());
         }
@@ -304,6 +300,7 @@ public class ItemActivity extends Activity
                 }
                 handler.post(new Runnable() {
                     public void run() {
+                        ItemActivity.this.readAhead.invalidatePins();
                         bindPinView();
                         dialog.dismiss();
                     }
@@ -354,13 +351,40 @@ public class ItemActivity extends Activity
 
         bindSubTitleView();
         bindItemView();
+        readAheadItems();
+    }
+
+    /** renders the next and previous items in background */
+    private void readAheadItems() {
+        Item.FilterCursor csr = this.itemsCursor;
+        if (csr == null) {
+            return;
+        }
+        int pos = csr.getPosition();
+        if (csr.moveToPosition(pos + 1)) {
+            this.readAhead.request(csr.getId());
+        }
+        if (pos > 0 && csr.moveToPosition(pos - 1)) {
+            this.readAhead.request(csr.getId());
+        }
+        csr.moveToPosition(pos);
+    }
+
+    /** the item at the cursor, the read ahead one if rendered */
+    private Item cursorItem() {
+        ItemReadAhead.Page page = this.readAhead.get(this.itemsCursor.getId());
+        return (page == null) ? this.itemsCursor.getItem(): page.item;
     }
 
     private void initItems(long itemId) {
+        // NOTE: read state may have changed, render again
+        this.readAhead.clear();
         if (this.itemsCursor != null) {
             this.itemsCursor.close();
+            this.itemsCursor = null;
         }
 
+        ContentResolver cr = getContentResolver();
         String orderby = Item._ID + " desc";
         StringBuilder where = new StringBuilder(this.baseWhere.buff);
         int baseLength = where.length();
@@ -371,12 +395,13 @@ public class ItemActivity extends Activity
 
         if (itemId == 0 || this.unreadOnly) {
             // NOTE: find unread
-            String unreadOnlyWhere = " and " + Item._UNREAD + " = 1";
+            String unreadOnlyWhere = SQL_UNREAD_ONLY_WHERE;
             int unreadOnlyWhereIndex = where.indexOf(unreadOnlyWhere);
             if (this.unreadOnly && unreadOnlyWhereIndex == -1) {
                 where.append(unreadOnlyWhere);
             }
-            Item.FilterCursor csr = new Item.FilterCursor(managedQuery(
+            // NOTE: not managed, a requery would drop the items read here
+            Item.FilterCursor csr = new Item.FilterCursor(cr.query(
                 Item.CONTENT_URI, null, new String(where), whereArgs, orderby));
             int count = (csr == null) ? 0: csr.getCount();
             if (count > 0) {
@@ -384,6 +409,7 @@ public class ItemActivity extends Activity
                 setCurrentItem(csr.getItem());
                 return;
             }
+            csr.close();
             this.unreadOnly = false;
             // NOTE: reset unread where buffer
             if (unreadOnlyWhereIndex != -1) {
@@ -396,10 +422,11 @@ public class ItemActivity extends Activity
             }
         }
 
-        Item.FilterCursor csr = new Item.FilterCursor(managedQuery(
+        Item.FilterCursor csr = new Item.FilterCursor(cr.query(
             Item.CONTENT_URI, null, new String(where), whereArgs, orderby));
         int count = (csr == null) ? 0: csr.getCount();
         if (count == 0) {
+            csr.close();
             bindSubTitleView();
             bindItemView();
             return;
@@ -432,56 +459,17 @@ public class ItemActivity extends Activity
             this.itemsCursor.close();
             this.itemsCursor = null;
         }
-        if (this.readItemIds.size() == 0) {
-            return;
-        }
-
-        int buffSize = 128 + (this.readItemIds.size() * 3);
-        StringBuilder where = new StringBuilder(buffSize);
-        where.append(Item._UNREAD + " = 1");
-        where.append(" and ");
-        where.append(Item._SUBSCRIPTION_ID + " = " + this.sub.getId());
-        where.append(" and ");
-        where.append(Item._ID + " in (");
-        boolean first = true;
-        for (long itemId: this.readItemIds) {
-            if (first) {
-                first = false;
-            } else {
-                where.append(",");
-            }
-            where.append(itemId);
-        }
-        where.append(")");
-
-        this.readItemIds.clear();
-        if (!isFinishing()) {
-            where.append(" and ");
-            where.append(Item._ID + " <> " + this.sub.getReadItemId());
-            this.readItemIds.add(this.sub.getReadItemId());
-        }
-
-        ContentValues values = new ContentValues();
-        values.put(Item._UNREAD, 0);
-        ContentResolver cr = getContentResolver();
-        int readCount = cr.update(Item.CONTENT_URI, values,
-            new String(where), null);
-        if (readCount > 0) {
-            where.setLength(0);
-            where.append(Item._SUBSCRIPTION_ID + " = ").append(this.sub.getId());
-            where.append(" and ");
-            where.append(Item._UNREAD + " = 1");
-            Cursor c = cr.query(Item.CONTENT_URI, Item.SELECT_COUNT,
-                new String(where), null, null);
-            c.moveToNext();
-            int unreadCount = c.getInt(0);
-            c.close();
-
-            ContentValues subValues = new ContentValues();
-            subValues.put(Subscription._UNREAD_COUNT, unreadCount);
-            cr.update(subUri, subValues, null, null);
+    }
 
-            sendBroadcast(new Intent(ReaderService.ACTION_UNREAD_MODIFIED));
+    /**
+     * journals the item shown before as read. the shown item stays
+     * unread until it is left, so an unread only cursor still finds it
+     * when the activity is recreated.
+     */
+    private void journalPendingRead() {
+        if (this.pendingReadId != 0) {
+            this.readJournal.markRead(this.pendingReadId);
+            this.pendingReadId = 0;
         }
     }
 
@@ -499,14 +487,14 @@ public class ItemActivity extends Activity
     private void nextItem() {
         scheduleHideTouchControlViews();
         if (this.itemsCursor != null && this.itemsCursor.moveToNext()) {
-            setCurrentItem(this.itemsCursor.getItem());
+            setCurrentItem(cursorItem());
         }
     }
 
     private void previousItem() {
         scheduleHideTouchControlViews();
         if (this.itemsCursor != null && this.itemsCursor.moveToPrevious()) {
-            setCurrentItem(this.itemsCursor.getItem());
+            setCurrentItem(cursorItem());
         }
     }
 
@@ -620,13 +608,19 @@ public class ItemActivity extends Activity
             iconView.setImageResource(item.isUnread()
                 ? R.drawable.item_unread: R.drawable.item_read);
             titleView.setText(item.getTitle());
+            ItemReadAhead.Page page = this.readAhead.get(item.getId());
+            String html = (page == null) ? createBodyHtml(this, item): page.html;
             bodyView.loadDataWithBaseURL(ApiClient.URL_READER,
-                createBodyHtml(item), "text/html", "UTF-8", "about:blank");
+                html, "text/html", "UTF-8", "about:blank");
             if (bindTouchControlViews) {
                 bindTouchControlViews(true);
             }
+            if (item.getId() != this.pendingReadId) {
+                journalPendingRead();
+            }
             if (item.isUnread()) {
-                this.readItemIds.add(item.getId());
+                this.pendingReadId = item.getId();
+                this.readAhead.markRead(item.getId());
             }
         }
         bindPinView();
@@ -636,13 +630,12 @@ public class ItemActivity extends Activity
         if (this.currentItem == null) {
             return false;
         }
-        ContentResolver cr = getContentResolver();
-        Cursor cursor = cr.query(Pin.CONTENT_URI, null,
-            Pin._URI + " = ? and " + Pin._ACTION + " <> " + Pin.ACTION_REMOVE,
-            new String[]{this.currentItem.getUri()}, null);
-        boolean exists = (cursor.getCount() > 0);
-        cursor.close();
-        return exists;
+        ItemReadAhead.Page page = this.readAhead.get(this.currentItem.getId());
+        if (page != null && page.pinned != null) {
+            return page.pinned;
+        }
+        return ItemReadAhead.pinExists(getContentResolver(),
+            this.currentItem.getUri());
     }
 
     private void bindPinView() {
@@ -655,7 +648,7 @@ public class ItemActivity extends Activity
         }
     }
 
-    private static String createBodyHtml(Item item) {
+    static String createBodyHtml(Context context, Item item) {
         String body = item.getBody();
         if (body == null) {
             body = "";
@@ -728,5 +721,32 @@ public class ItemActivity extends Activity
                 }).show();
             return true;
         }
+
+        /**
+         * serves the images cached by sync for their http urls, so the
+         * body is shown offline. called since API 11, earlier the images
+         * load online only.
+         */
+        @Override
+        public WebResourceResponse shouldInterceptRequest(WebView view,
+                String url) {
+            if (!url.startsWith("http://") && !url.startsWith("https://")) {
+                return null;
+            }
+            InputStream in = ImageCache.getInstance(
+                getApplicationContext()).openImage(url);
+            if (in == null) {
+                return null;
+            }
+            in = new BufferedInputStream(in);
+            String type = null;
+            try {
+                type = URLConnection.guessContentTypeFromStream(in);
+            } catch (IOException e) {
+                // NOTE: ignore, the WebView sniffs the image type
+            }
+            return new WebResourceResponse(
+                (type == null) ? "image/*": type, null, in);
+        }
     }
 }
@@ -19,6 +19,7 @@ import android.view.MenuItem;
 public class ItemActivityHelper extends ActivityHelper {
 
     public static final int DIALOG_RELOAD = 1;
+    public static final int DIALOG_RETENTION = 97;
     public static final int DIALOG_REMOVE = 98;
 
     public static interface Itemable {
@@ -45,6 +46,44 @@ public class ItemActivityHelper extends ActivityHelper {
             ).create();
     }
 
+    static Dialog createDialogRetention(final Itemable itemable,
+            int maxItems) {
+        final Activity activity = itemable.getActivity();
+        int checked = 0;
+        for (int i = 0; i < ItemRetention.MAX_ITEMS_CHOICES.length; i++) {
+            if (ItemRetention.MAX_ITEMS_CHOICES[i] == maxItems) {
+                checked = i;
+            }
+        }
+        return new AlertDialog.Builder(activity)
+            .setTitle(R.string.dialog_items_retention_title)
+            .setSingleChoiceItems(R.array.dialog_items_retention, checked,
+                new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int i) {
+                        ContentValues values = new ContentValues();
+                        values.put(Subscription._RETENTION_MAX_ITEMS,
+                            ItemRetention.MAX_ITEMS_CHOICES[i]);
+                        ContentResolver cr = activity.getContentResolver();
+                        cr.update(itemable.getSubUri(), values, null, null);
+                        dialog.dismiss();
+                    }
+                }
+            ).create();
+    }
+
+    static void updateOfflineImages(Itemable itemable, Subscription sub,
+            boolean offlineImages) {
+        Activity activity = itemable.getActivity();
+        ContentValues values = new ContentValues();
+        values.put(Subscription._OFFLINE_IMAGES, (offlineImages ? 1: 0));
+        activity.getContentResolver().update(itemable.getSubUri(), values,
+            null, null);
+        sub.setOfflineImages(offlineImages);
+        showToast(activity.getApplicationContext(), activity.getText(
+            offlineImages ? R.string.msg_offline_images_on:
+            R.string.msg_offline_images_off));
+    }
+
     static Dialog createDialogRemove(final Itemable itemable) {
         final Activity activity = itemable.getActivity();
         final Context context = activity.getApplicationContext();
@@ -98,21 +137,9 @@ public class ItemActivityHelper extends ActivityHelper {
         dialog.show();
         new Thread() {
             public void run() {
-                ContentResolver cr = activity.getContentResolver();
-                ContentValues values = new ContentValues();
                 long subId = itemable.getSubId();
-
-                StringBuilder where = new StringBuilder(64);
-                where.append(Item._UNREAD).append(" = 1");
-                where.append(" and ");
-                where.append(Item._SUBSCRIPTION_ID).append(" = ").append(subId);
-
-                values.put(Item._UNREAD, 0);
-                cr.update(Item.CONTENT_URI, values, new String(where), null);
-
-                values.clear();
-                values.put(Subscription._UNREAD_COUNT, 0);
-                cr.update(itemable.getSubUri(), values, null, null);
+                ReadJournal.getInstance(context).markRead(
+                    ReadJournal.sqlUnreadWhere(subId), null);
 
                 itemable.getHandler().post(new Runnable() {
                     public void run() {
@@ -136,20 +163,8 @@ public class ItemActivityHelper extends ActivityHelper {
         new Thread() {
             public void run() {
                 long subId = itemable.getSubId();
-                StringBuilder where = new StringBuilder(64);
-                where.append(Item._SUBSCRIPTION_ID).append(" = ").append(subId);
-                if (!all) {
-                    where.append(" and ");
-                    where.append(Item._UNREAD).append(" = 0");
-                }
-
                 ContentResolver cr = activity.getContentResolver();
-                cr.delete(Item.CONTENT_URI, new String(where), null);
-                if (all) {
-                    ContentValues values = new ContentValues();
-                    values.put(Subscription._UNREAD_COUNT, 0);
-                    cr.update(itemable.getSubUri(), values, null, null);
-                }
+                cr.delete(Item.CONTENT_URI, sqlRemoveWhere(subId, all), null);
 
                 itemable.getHandler().post(new Runnable() {
                     public void run() {
@@ -166,4 +181,15 @@ public class ItemActivityHelper extends ActivityHelper {
             }
         }.start();
     }
+
+    /** the items of a subscription the remove dialog deletes */
+    static String sqlRemoveWhere(long subId, boolean all) {
+        StringBuilder where = new StringBuilder(64);
+        where.append(Item._SUBSCRIPTION_ID).append(" = ").append(subId);
+        if (!all) {
+            where.append(" and ");
+            where.append(Item._UNREAD).append(" = 0");
+        }
+        return new String(where);
+    }
 }
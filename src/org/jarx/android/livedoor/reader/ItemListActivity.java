@@ -1,6 +1,8 @@
 package org.jarx.android.livedoor.reader;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import android.app.Activity; 
 import android.app.AlertDialog;
 import android.app.Dialog;
@@ -17,11 +19,13 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.text.Html;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.Menu;
@@ -30,6 +34,7 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.inputmethod.InputMethodManager;
+import android.widget.AbsListView;
 import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.ResourceCursorAdapter;
@@ -42,6 +47,8 @@ public class ItemListActivity extends ListActivity
     private static final int DIALOG_MOVE = 3;
     private static final int REQUEST_ITEM_ID = 1;
     private static final int REQUEST_PREFERENCES = 1;
+    private static final int PAGE_SIZE = 100;
+    private static final int PAGE_PREFETCH = 20;
 
     private final Handler handler = new Handler();
     private Uri subUri;
@@ -52,6 +59,10 @@ public class ItemListActivity extends ListActivity
     private ReaderManager readerManager;
     private String keyword;
     private boolean unreadOnly;
+    private final ArrayList<Cursor> pages = new ArrayList<Cursor>();
+    private PagedCursor pagedCursor;
+    private boolean hasMorePages;
+    private boolean pageLoading;
 
     private ServiceConnection serviceConn = new ServiceConnection() {
         @Override
@@ -76,10 +87,27 @@ public class ItemListActivity extends ListActivity
     private BroadcastReceiver refreshReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
+            Subscription s = ItemListActivity.this.sub;
+            if (ReaderService.ACTION_SYNC_SUB_FINISHED.equals(intent.getAction())
+                    && (s == null || !contains(intent.getLongArrayExtra(
+                        ReaderService.EXTRA_SUB_IDS), s.getId()))) {
+                return;
+            }
             ItemListActivity.this.initListAdapter();
         }
     };
 
+    private static boolean contains(long[] ids, long id) {
+        if (ids != null) {
+            for (long i: ids) {
+                if (i == id) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -89,6 +117,7 @@ public class ItemListActivity extends ListActivity
 
         IntentFilter filter = new IntentFilter();
         filter.addAction(ReaderService.ACTION_SYNC_SUBS_FINISHED);
+        filter.addAction(ReaderService.ACTION_SYNC_SUB_FINISHED);
         filter.addAction(ReaderService.ACTION_UNREAD_MODIFIED);
         registerReceiver(this.refreshReceiver, filter);
 
@@ -126,6 +155,25 @@ public class ItemListActivity extends ListActivity
         });
 
         initListAdapter();
+        getListView().setOnScrollListener(new AbsListView.OnScrollListener() {
+            public void onScroll(AbsListView view, int firstVisibleItem,
+                    int visibleItemCount, int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount + PAGE_PREFETCH
+                        >= totalItemCount) {
+                    requestNextPage();
+                }
+            }
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+        });
+    }
+
+    @Override
+    public void onRestart() {
+        super.onRestart();
+        // NOTE: a page keyset is stale once items change, the chain is
+        // rebuilt from the newest page. onResume moves back to the item.
+        initListAdapter();
     }
 
     @Override
@@ -144,6 +192,9 @@ public class ItemListActivity extends ListActivity
         super.onDestroy();
         unbindService(this.serviceConn);
         unregisterReceiver(this.refreshReceiver);
+        if (this.itemsAdapter != null) {
+            this.itemsAdapter.closeCursor();
+        }
     }
 
     private void bindSubTitleView(boolean reloadSub) {
@@ -189,6 +240,9 @@ public class ItemListActivity extends ListActivity
                         }
                     }
                 ).create();
+        case ItemActivityHelper.DIALOG_RETENTION:
+            return ItemActivityHelper.createDialogRetention(this,
+                this.sub.getRetentionMaxItems());
         case ItemActivityHelper.DIALOG_REMOVE:
             return ItemActivityHelper.createDialogRemove(this);
         }
@@ -202,6 +256,13 @@ public class ItemListActivity extends ListActivity
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem offlineImages = menu.findItem(R.id.menu_offline_images);
+        offlineImages.setChecked(this.sub != null && this.sub.isOfflineImages());
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem menuItem) {
         switch (menuItem.getItemId()) {
@@ -220,6 +281,15 @@ public class ItemListActivity extends ListActivity
         case R.id.menu_search:
             toggleSearchBar();
             return true;
+        case R.id.menu_retention:
+            showDialog(ItemActivityHelper.DIALOG_RETENTION);
+            return true;
+        case R.id.menu_offline_images:
+            if (this.sub != null) {
+                ItemActivityHelper.updateOfflineImages(this, this.sub,
+                    !this.sub.isOfflineImages());
+            }
+            return true;
         case R.id.menu_remove:
             showDialog(ItemActivityHelper.DIALOG_REMOVE);
             return true;
@@ -311,12 +381,29 @@ public class ItemListActivity extends ListActivity
     }
 
     private ActivityHelper.Where createBaseWhere() {
-        String keyword = this.keyword;
+        return createBaseWhere(true);
+    }
+
+    private ActivityHelper.Where createBaseWhere(boolean withKeyword) {
+        return createBaseWhere(this.sub.getId(),
+            withKeyword ? this.keyword: null, this.unreadOnly);
+    }
+
+    /** the where of the item list, also of ItemActivity navigation */
+    static ActivityHelper.Where createBaseWhere(long subId, String keyword,
+            boolean unreadOnly) {
+        String match = Utils.asFtsQuery(keyword);
         String[] args = null;
         StringBuilder buff = new StringBuilder(
             (keyword == null) ? 64: 128 + keyword.length());
-        buff.append(Item._SUBSCRIPTION_ID).append(" = ").append(this.sub.getId());
-        if (keyword != null && keyword.length() > 0) {
+        buff.append(Item._SUBSCRIPTION_ID).append(" = ").append(subId);
+        if (match != null) {
+            buff.append(" and ").append(Item._ID).append(" in (select docid from ");
+            buff.append(Item.FTS_TABLE_NAME).append(" where ");
+            buff.append(Item.FTS_TABLE_NAME).append(" match ?)");
+            args = new String[]{match};
+        } else if (keyword != null && keyword.length() > 0) {
+            // NOTE: symbols only, not in the search index
             buff.append(" and (");
             buff.append(Item._TITLE).append(" like ? escape '\\'");
             buff.append(" or ");
@@ -328,7 +415,7 @@ public class ItemListActivity extends ListActivity
             keyword = "%" + keyword + "%";
             args = new String[]{keyword, keyword};
         }
-        if (this.unreadOnly) {
+        if (unreadOnly) {
             buff.append(" and ");
             buff.append(Item._UNREAD).append(" = 1");
         }
@@ -367,16 +454,77 @@ public class ItemListActivity extends ListActivity
     }
 
     private void initListAdapter() {
-        ActivityHelper.Where where = createBaseWhere();
+        // NOTE: the old pages are closed with the old cursor by changeCursor
+        this.pages.clear();
+        this.pages.add(queryPage(0));
+        bindPages(false);
+    }
+
+    /**
+     * queries one page, not managed: a requery would keep the keyset of
+     * when the page was loaded. the pages are closed with their cursor.
+     */
+    private Cursor queryPage(long beforeId) {
+        ContentResolver cr = getContentResolver();
         String orderby = Item._ID + " desc";
-        Cursor cursor = managedQuery(Item.CONTENT_URI, null,
-            new String(where.buff), where.args, orderby);;
+        Cursor cursor;
+        if (Utils.asFtsQuery(this.keyword) != null) {
+            // NOTE: same order as createBaseWhere(), for item navigation
+            ActivityHelper.Where where = createBaseWhere(false);
+            Uri uri = Item.searchUri(this.keyword, this.sub.getId());
+            cursor = cr.query(Item.pageUri(uri, beforeId, PAGE_SIZE),
+                null, new String(where.buff), where.args, orderby);
+        } else {
+            ActivityHelper.Where where = createBaseWhere();
+            Uri uri = Item.pageUri(Item.CONTENT_URI, beforeId, PAGE_SIZE);
+            cursor = cr.query(uri, Item.LIST_SELECT,
+                new String(where.buff), where.args, orderby);
+        }
+        this.hasMorePages = (cursor.getCount() >= PAGE_SIZE);
+        return cursor;
+    }
+
+    private void bindPages(boolean append) {
+        PagedCursor cursor = new PagedCursor(this.pages);
         if (this.itemsAdapter == null) {
             this.itemsAdapter = new ItemsAdapter(this, cursor);
             setListAdapter(this.itemsAdapter);
         } else {
+            if (append && this.pagedCursor != null) {
+                // NOTE: the pages live on in the new cursor
+                this.pagedCursor.detached = true;
+            }
             this.itemsAdapter.changeCursor(cursor);
         }
+        this.pagedCursor = cursor;
+    }
+
+    private void requestNextPage() {
+        if (!this.hasMorePages || this.pageLoading) {
+            return;
+        }
+        this.pageLoading = true;
+        this.handler.post(new Runnable() {
+            public void run() {
+                ItemListActivity.this.pageLoading = false;
+                loadNextPage();
+            }
+        });
+    }
+
+    private boolean loadNextPage() {
+        if (!this.hasMorePages || this.pages.isEmpty()) {
+            return false;
+        }
+        Cursor last = this.pages.get(this.pages.size() - 1);
+        if (!last.moveToLast()) {
+            this.hasMorePages = false;
+            return false;
+        }
+        long beforeId = last.getLong(last.getColumnIndex(Item._ID));
+        this.pages.add(queryPage(beforeId));
+        bindPages(true);
+        return true;
     }
 
     private void moveToItemId(long itemId) {
@@ -392,6 +540,9 @@ public class ItemListActivity extends ListActivity
         cursor.moveToNext();
         int pos = cursor.getInt(0);
         cursor.close();
+        while (pos >= this.itemsAdapter.getCount() && loadNextPage()) {
+            // NOTE: load pages until the item is in the list
+        }
         getListView().setSelectionFromTop(pos, 48);
     }
 
@@ -445,19 +596,8 @@ public class ItemListActivity extends ListActivity
         final long subId = this.sub.getId();
         new Thread() {
             public void run() {
-                ContentResolver cr = getContentResolver();
-                ContentValues values = new ContentValues();
-
-                StringBuilder where = new StringBuilder(64);
-                where.append(Item._UNREAD + " = 1");
-                where.append(" and ");
-                where.append(Item._SUBSCRIPTION_ID + " = " + subId);
-                values.put(Item._UNREAD, 0);
-                cr.update(Item.CONTENT_URI, values, new String(where), null);
-
-                values.clear();
-                values.put(Subscription._UNREAD_COUNT, 0);
-                cr.update(ItemListActivity.this.subUri, values, null, null);
+                ReadJournal.getInstance(ItemListActivity.this).markRead(
+                    ReadJournal.sqlUnreadWhere(subId), null);
 
                 handler.post(new Runnable() {
                     public void run() {
@@ -471,6 +611,26 @@ public class ItemListActivity extends ListActivity
         }.start();
     }
 
+    /**
+     * Merged item pages, a detached cursor leaves its pages open for the
+     * cursor that replaced it.
+     */
+    private static class PagedCursor extends MergeCursor {
+
+        private boolean detached;
+
+        private PagedCursor(List<Cursor> pages) {
+            super(pages.toArray(new Cursor[pages.size()]));
+        }
+
+        @Override
+        public void close() {
+            if (!this.detached) {
+                super.close();
+            }
+        }
+    }
+
     private class ItemsAdapter extends ResourceCursorAdapter {
 
         private ItemsAdapter(Context context, Cursor cursor) {
@@ -506,7 +666,12 @@ public class ItemListActivity extends ListActivity
             iconView.setImageResource(item.isUnread()
                 ? R.drawable.item_unread: R.drawable.item_read);
             titleView.setText(item.getTitle());
-            summaryView.setText(item.getSummary());
+            String snippet = itemCursor.getSnippet();
+            if (snippet == null) {
+                summaryView.setText(item.getSummary());
+            } else {
+                summaryView.setText(Html.fromHtml(snippet));
+            }
 
             view.setTag(item.getId());
         }
@@ -0,0 +1,148 @@
+package org.jarx.android.livedoor.reader;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+/**
+ * Loads and renders the items next to the current one on a worker
+ * thread, so that next/previous only swap in the finished html.
+ */
+class ItemReadAhead {
+
+    private static final String TAG = "ItemReadAhead";
+    private static final int MAX_PAGES = 4;
+
+    static final String SQL_PIN_WHERE = Pin._URI + " = ? and "
+        + Pin._ACTION + " <> " + Pin.ACTION_REMOVE;
+
+    static class Page {
+
+        final Item item;
+        final String html;
+        Boolean pinned;
+
+        private Page(Item item, String html, boolean pinned) {
+            this.item = item;
+            this.html = html;
+            this.pinned = pinned;
+        }
+    }
+
+    private final Context context;
+    private final ContentResolver cr;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Map<Long, Page> pages
+            = new LinkedHashMap<Long, Page>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Page> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    private final Set<Long> loading = new HashSet<Long>();
+    private int generation;
+
+    ItemReadAhead(Context context) {
+        this.context = context.getApplicationContext();
+        this.cr = context.getContentResolver();
+    }
+
+    synchronized Page get(long id) {
+        return this.pages.get(id);
+    }
+
+    void request(final long id) {
+        final int gen;
+        synchronized (this) {
+            if (this.pages.containsKey(id) || !this.loading.add(id)) {
+                return;
+            }
+            gen = this.generation;
+        }
+        this.executor.execute(new Runnable() {
+            public void run() {
+                Page page = null;
+                try {
+                    page = load(id);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "read ahead failed " + id, e);
+                }
+                put(id, page, gen);
+            }
+        });
+    }
+
+    /** the item is read from now on, keep its page */
+    synchronized void markRead(long id) {
+        Page page = this.pages.get(id);
+        if (page != null) {
+            page.item.setUnread(false);
+        }
+    }
+
+    synchronized void invalidatePins() {
+        for (Page page: this.pages.values()) {
+            page.pinned = null;
+        }
+    }
+
+    /** drops all pages, pages loading now are dropped when done */
+    synchronized void clear() {
+        this.pages.clear();
+        this.loading.clear();
+        this.generation++;
+    }
+
+    void shutdown() {
+        clear();
+        this.executor.shutdownNow();
+    }
+
+    private synchronized void put(long id, Page page, int gen) {
+        if (gen != this.generation) {
+            return;
+        }
+        this.loading.remove(id);
+        if (page != null) {
+            this.pages.put(id, page);
+        }
+    }
+
+    private Page load(long id) {
+        Item item = null;
+        Cursor cursor = this.cr.query(
+            ContentUris.withAppendedId(Item.CONTENT_URI, id),
+            null, null, null, null);
+        try {
+            Item.FilterCursor csr = new Item.FilterCursor(cursor);
+            if (csr.moveToFirst()) {
+                item = csr.getItem();
+            }
+        } finally {
+            cursor.close();
+        }
+        if (item == null) {
+            return null;
+        }
+        String html = ItemActivity.createBodyHtml(this.context, item);
+        return new Page(item, html, pinExists(this.cr, item.getUri()));
+    }
+
+    static boolean pinExists(ContentResolver cr, String uri) {
+        Cursor cursor = cr.query(Pin.CONTENT_URI, Pin.SELECT_ID,
+            SQL_PIN_WHERE, new String[]{uri}, null);
+        try {
+            return (cursor.getCount() > 0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.jarx.android.livedoor.reader;
+
+import java.util.ArrayList;
+import java.util.List;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+/**
+ * Deletes old items by the retention policy after sync.
+ *
+ * A subscription keeps its newest items up to the subscription or the
+ * global max items, and items newer than the global max days. Unread
+ * and pinned items are kept if so configured. Rows are deleted in small
+ * chunks, each in its own transaction, so that sync and the activities
+ * never wait long for the database.
+ */
+public class ItemRetention {
+
+    private static final String TAG = "ItemRetention";
+    private static final int CHUNK_SIZE = 200;
+    static final String SQL_CHUNK_ORDER = Item._ID + " asc limit " + CHUNK_SIZE;
+    private static final long DAY_SECONDS = 24 * 60 * 60;
+
+    // NOTE: same order as R.array.dialog_items_retention
+    public static final int[] MAX_ITEMS_CHOICES = {
+        Subscription.RETENTION_DEFAULT, 50, 100, 200, 500, 1000,
+        Subscription.RETENTION_UNLIMITED
+    };
+
+    private static final String[] SELECT_SUB = {
+        Subscription._ID, Subscription._RETENTION_MAX_ITEMS
+    };
+    static final String[] SELECT_CHUNK = {
+        Item._ID,
+        "ifnull(length(cast(" + Item._TITLE + " as blob)), 0)"
+            + " + ifnull(length(cast(" + Item._BODY + " as blob)), 0)"
+            + " + ifnull(length(cast(" + Item._SUMMARY + " as blob)), 0)"
+            + " + ifnull(length(cast(" + Item._URI + " as blob)), 0)"
+    };
+
+    private final Context context;
+    private int deletedRows;
+    private long deletedBytes;
+
+    public ItemRetention(Context context) {
+        this.context = context;
+    }
+
+    public int getDeletedRows() {
+        return this.deletedRows;
+    }
+
+    /** text bytes of the deleted rows, not counting the search index */
+    public long getDeletedBytes() {
+        return this.deletedBytes;
+    }
+
+    public void run() {
+        Context c = this.context;
+        int maxItems = ReaderPreferences.getRetentionMaxItems(c);
+        int maxDays = ReaderPreferences.getRetentionMaxDays(c);
+        boolean keepUnread = ReaderPreferences.isRetentionKeepUnread(c);
+        boolean keepPinned = ReaderPreferences.isRetentionKeepPinned(c);
+
+        ContentResolver cr = c.getContentResolver();
+        List<long[]> subs = new ArrayList<long[]>();
+        Cursor cursor = cr.query(Subscription.CONTENT_URI, SELECT_SUB,
+            null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                long subMaxItems = cursor.isNull(1)
+                    ? Subscription.RETENTION_DEFAULT: cursor.getLong(1);
+                subs.add(new long[]{cursor.getLong(0), subMaxItems});
+            }
+        } finally {
+            cursor.close();
+        }
+
+        long expireTime = 0;
+        if (maxDays > 0) {
+            expireTime = (System.currentTimeMillis() / 1000)
+                - (maxDays * DAY_SECONDS);
+        }
+        for (long[] sub: subs) {
+            long subMaxItems = sub[1];
+            if (subMaxItems == Subscription.RETENTION_DEFAULT) {
+                subMaxItems = maxItems;
+            }
+            String expired = expiredWhere(cr, sub[0], subMaxItems, expireTime);
+            if (expired == null) {
+                continue;
+            }
+            deleteChunks(cr, sqlDeleteWhere(sub[0], expired, keepUnread,
+                keepPinned));
+        }
+        Log.i(TAG, "deleted " + this.deletedRows + " items, "
+            + this.deletedBytes + " bytes");
+    }
+
+    /** the items of a subscription to delete in chunks */
+    static String sqlDeleteWhere(long subId, String expired,
+            boolean keepUnread, boolean keepPinned) {
+        StringBuilder where = new StringBuilder(256);
+        where.append(Item._SUBSCRIPTION_ID).append(" = ").append(subId);
+        where.append(" and (").append(expired).append(")");
+        if (keepUnread) {
+            where.append(" and ").append(Item._UNREAD).append(" = 0");
+        }
+        if (keepPinned) {
+            where.append(" and ").append(Item._URI).append(" not in (select ");
+            where.append(Pin._URI).append(" from ").append(Pin.TABLE_NAME);
+            where.append(" where ").append(Pin._ACTION);
+            where.append(" <> ").append(Pin.ACTION_REMOVE).append(")");
+        }
+        return new String(where);
+    }
+
+    /** the order of the query for the newest item over maxItems */
+    static String sqlOverLimitOrder(long maxItems) {
+        return Item._ID + " desc limit " + maxItems + ", 1";
+    }
+
+    private String expiredWhere(ContentResolver cr, long subId, long maxItems,
+            long expireTime) {
+        long overLimitId = 0;
+        if (maxItems > 0) {
+            // NOTE: _id of the newest item over the limit
+            Cursor cursor = cr.query(Item.CONTENT_URI, Item.SELECT_ID,
+                Item._SUBSCRIPTION_ID + " = " + subId, null,
+                sqlOverLimitOrder(maxItems));
+            try {
+                if (cursor.moveToFirst()) {
+                    overLimitId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return sqlExpiredWhere(overLimitId, expireTime);
+    }
+
+    /**
+     * items at or below overLimitId, or not changed since expireTime.
+     * null if neither is set.
+     */
+    static String sqlExpiredWhere(long overLimitId, long expireTime) {
+        StringBuilder where = new StringBuilder(128);
+        if (overLimitId > 0) {
+            where.append(Item._ID).append(" <= ").append(overLimitId);
+        }
+        if (expireTime > 0) {
+            if (where.length() > 0) {
+                where.append(" or ");
+            }
+            where.append("max(").append(Item._CREATED_TIME).append(", ");
+            where.append(Item._MODIFIED_TIME).append(") < ").append(expireTime);
+        }
+        return (where.length() == 0) ? null: new String(where);
+    }
+
+    private void deleteChunks(ContentResolver cr, String where) {
+        StringBuilder ids = new StringBuilder(CHUNK_SIZE * 12);
+        while (true) {
+            int count = 0;
+            ids.setLength(0);
+            Cursor cursor = cr.query(Item.CONTENT_URI, SELECT_CHUNK, where,
+                null, SQL_CHUNK_ORDER);
+            try {
+                while (cursor.moveToNext()) {
+                    if (count++ > 0) {
+                        ids.append(",");
+                    }
+                    ids.append(cursor.getLong(0));
+                    this.deletedBytes += cursor.getLong(1);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (count == 0) {
+                return;
+            }
+            this.deletedRows += cr.delete(Item.CONTENT_URI,
+                Item._ID + " in (" + ids + ")", null);
+            if (count < CHUNK_SIZE) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.jarx.android.livedoor.reader;
+
+/**
+ * Open addressing hash set of primitive longs, no boxing.
+ */
+public class LongSet {
+
+    private static final long FREE = 0;
+
+    private long[] table;
+    private int size;
+    private boolean containsFree;
+
+    public LongSet() {
+        this(16);
+    }
+
+    public LongSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        this.table = new long[capacity];
+    }
+
+    public int size() {
+        return this.containsFree ? this.size + 1: this.size;
+    }
+
+    public boolean contains(long value) {
+        if (value == FREE) {
+            return this.containsFree;
+        }
+        long[] t = this.table;
+        int mask = t.length - 1;
+        int i = hash(value) & mask;
+        while (t[i] != FREE) {
+            if (t[i] == value) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public boolean add(long value) {
+        if (value == FREE) {
+            boolean added = !this.containsFree;
+            this.containsFree = true;
+            return added;
+        }
+        if ((this.size + 1) * 2 > this.table.length) {
+            rehash(this.table.length << 1);
+        }
+        if (!put(this.table, value)) {
+            return false;
+        }
+        this.size++;
+        return true;
+    }
+
+    public long[] toArray() {
+        long[] values = new long[size()];
+        int n = 0;
+        if (this.containsFree) {
+            values[n++] = FREE;
+        }
+        for (long v: this.table) {
+            if (v != FREE) {
+                values[n++] = v;
+            }
+        }
+        return values;
+    }
+
+    private void rehash(int capacity) {
+        long[] t = new long[capacity];
+        for (long v: this.table) {
+            if (v != FREE) {
+                put(t, v);
+            }
+        }
+        this.table = t;
+    }
+
+    private static boolean put(long[] t, long value) {
+        int mask = t.length - 1;
+        int i = hash(value) & mask;
+        while (t[i] != FREE) {
+            if (t[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        t[i] = value;
+        return true;
+    }
+
+    private static int hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -37,6 +37,7 @@ public class NotifierWidget extends AppWidgetProvider {
         String action = intent.getAction();
         if (action != null && (
                 action.equals(ReaderService.ACTION_SYNC_SUBS_FINISHED)
+                    || action.equals(ReaderService.ACTION_SYNC_SUB_FINISHED)
                     || action.equals(ReaderService.ACTION_UNREAD_MODIFIED))) {
             int unreadCount = ReaderManager.countUnread(context);
             RemoteViews views = createRemoteViews(context, unreadCount);
@@ -19,6 +19,8 @@ public class Pin implements Cloneable, Serializable, BaseColumns {
     public static final String _ACTION = "action";
     public static final String _CREATED_TIME = "created_time";
 
+    public static final String[] SELECT_ID = {_ID};
+
     public static final String SQL_CREATE_TABLE
         = "create table if not exists " + TABLE_NAME + " ("
         + _ID + " integer primary key,"
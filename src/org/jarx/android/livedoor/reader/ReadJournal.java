@@ -0,0 +1,170 @@
+package org.jarx.android.livedoor.reader;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.SQLException;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Write-behind journal of item read state.
+ *
+ * Read marks are appended to the read_journal table as they happen, and
+ * applied to the item rows in one statement a few seconds later. The
+ * journal survives the process, rows left by a killed process are
+ * applied on the next flush.
+ */
+public final class ReadJournal {
+
+    public static final String TABLE_NAME = "read_journal";
+
+    public static final Uri CONTENT_URI
+        = Uri.parse(ReaderProvider.READ_JOURNAL_CONTENT_URI_NAME);
+    public static final Uri FLUSH_URI = Uri.withAppendedPath(CONTENT_URI, "flush");
+
+    public static final String _ITEM_ID = "item_id";
+    public static final String _UNREAD = "unread";
+
+    private static final String TAG = "ReadJournal";
+    private static final long FLUSH_DELAY_SECONDS = 3;
+
+    public static final String SQL_CREATE_TABLE
+        = "create table if not exists " + TABLE_NAME + " ("
+        + _ITEM_ID + " integer primary key,"
+        + _UNREAD + " integer"
+        + ")";
+
+    public static final String SQL_INSERT
+        = "insert or replace into " + TABLE_NAME
+        + " (" + _ITEM_ID + ", " + _UNREAD + ") values (?, ?)";
+
+    private static final String SQL_JOURNAL_UNREAD
+        = "(select j." + _UNREAD + " from " + TABLE_NAME + " j"
+        + " where j." + _ITEM_ID + " = " + Item.TABLE_NAME + "." + Item._ID + ")";
+
+    // NOTE: rows already in the journaled state are not updated, the
+    // unread triggers fire once per changed row
+    public static final String SQL_APPLY
+        = "update " + Item.TABLE_NAME
+        + " set " + Item._UNREAD + " = " + SQL_JOURNAL_UNREAD
+        + " where " + Item._ID + " in (select " + _ITEM_ID + " from " + TABLE_NAME + ")"
+        + " and " + Item._UNREAD + " is not " + SQL_JOURNAL_UNREAD;
+
+    public static final String SQL_CLEAR = "delete from " + TABLE_NAME;
+
+    public static String[] sqlForUpgrade(int oldVersion, int newVersion) {
+        if (oldVersion < 15) {
+            return new String[] {SQL_CREATE_TABLE};
+        }
+        return new String[0];
+    }
+
+    /** the items mark all as read journals */
+    static final String SQL_UNREAD_WHERE = Item._UNREAD + " = 1";
+
+    /** the items mark as read in a subscription journals */
+    static String sqlUnreadWhere(long subId) {
+        return SQL_UNREAD_WHERE + " and " + Item._SUBSCRIPTION_ID + " = " + subId;
+    }
+
+    /** journals the items matching where with the unread state */
+    static String sqlJournalWhere(String where, boolean unread) {
+        int value = unread ? 1: 0;
+        StringBuilder buff = new StringBuilder(256);
+        buff.append("insert or replace into ").append(TABLE_NAME);
+        buff.append(" (").append(_ITEM_ID).append(", ").append(_UNREAD).append(")");
+        buff.append(" select ").append(Item._ID).append(", ").append(value);
+        buff.append(" from ").append(Item.TABLE_NAME);
+        buff.append(" where ").append(Item._UNREAD).append(" is not ").append(value);
+        if (where != null && where.length() > 0) {
+            buff.append(" and (").append(where).append(")");
+        }
+        return new String(buff);
+    }
+
+    private static ReadJournal instance;
+
+    public static synchronized ReadJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new ReadJournal(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private final Context context;
+    private final ScheduledExecutorService executor
+        = Executors.newSingleThreadScheduledExecutor();
+    private boolean flushScheduled;
+
+    private ReadJournal(Context context) {
+        this.context = context;
+        // NOTE: apply what a killed process left
+        scheduleFlush();
+    }
+
+    /** journals the item as read, returns without waiting for the write */
+    public void markRead(final long itemId) {
+        this.executor.execute(new Runnable() {
+            public void run() {
+                ContentValues values = new ContentValues();
+                values.put(_ITEM_ID, itemId);
+                values.put(_UNREAD, 0);
+                try {
+                    getContentResolver().insert(CONTENT_URI, values);
+                } catch (SQLException e) {
+                    Log.w(TAG, "journal failed " + itemId, e);
+                }
+            }
+        });
+        scheduleFlush();
+    }
+
+    /**
+     * marks the items matching where as read and flushes, on the calling
+     * thread. returns the number of items changed.
+     */
+    public int markRead(String where, String[] whereArgs) {
+        ContentValues values = new ContentValues();
+        values.put(_UNREAD, 0);
+        getContentResolver().update(CONTENT_URI, values, where, whereArgs);
+        return flush();
+    }
+
+    /** applies the journal on the calling thread */
+    public int flush() {
+        synchronized (this) {
+            this.flushScheduled = false;
+        }
+        int count = getContentResolver().update(FLUSH_URI, null, null, null);
+        if (count > 0) {
+            this.context.sendBroadcast(
+                new Intent(ReaderService.ACTION_UNREAD_MODIFIED));
+        }
+        return count;
+    }
+
+    private synchronized void scheduleFlush() {
+        if (this.flushScheduled) {
+            return;
+        }
+        this.flushScheduled = true;
+        this.executor.schedule(new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                } catch (SQLException e) {
+                    Log.w(TAG, "flush failed", e);
+                }
+            }
+        }, FLUSH_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private ContentResolver getContentResolver() {
+        return this.context.getContentResolver();
+    }
+}
@@ -1,15 +1,20 @@
 package org.jarx.android.livedoor.reader;
 
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import org.json.simple.parser.ContentHandler;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.json.simple.parser.ParseException;
 import android.content.BroadcastReceiver;
 import android.content.ContentResolver;
@@ -19,23 +24,30 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
-import android.graphics.BitmapFactory;
-import android.graphics.Bitmap;
+import android.database.SQLException;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
-import android.text.TextUtils;
 import android.util.Log;
 import static org.jarx.android.livedoor.reader.Utils.*; 
 
 public class ReaderManager {
 
     public static final int API_ALL_LIMIT = 100;
+    public static final int API_SUBS_LIMIT = 100;
     public static final int ITEM_SYNC_UNREAD_ONLY = 0;
     public static final int ITEM_SYNC_WITH_READ_IF_NO_UNREAD = 1;
     public static final int ITEM_SYNC_WITH_READ = 2;
 
     private static final String TAG = "ReaderManager";
+    private static final String SQL_SUB_MODIFIED
+        = Subscription._MODIFIED_TIME + " <> " + Subscription._ITEM_SYNC_TIME;
+    // NOTE: item ids grow with time, a larger read_item_id is a feed
+    // read more recently. feeds never read sort last, by server unread.
+    private static final String SQL_SYNC_ORDER
+        = Subscription._RATE + " desc, "
+        + Subscription._READ_ITEM_ID + " desc, "
+        + Subscription._SERVER_UNREAD_COUNT + " desc";
 
     public static ReaderManager newInstance(Context context) {
         return new ReaderManager(context);
@@ -56,78 +68,216 @@ public class ReaderManager {
         final boolean unreadOnly = ReaderPreferences.isSyncUnreadOnly(this.context);
         String debugPrefix = "sync " + (unreadOnly ? "unread only": "all");
         Log.d(TAG, debugPrefix + " started.");
+        long transferredBytes = this.client.getTransferredBytes();
+        long decodedBytes = this.client.getDecodedBytes();
+
+        SyncCheckpoint checkpoint = SyncCheckpoint.load(this.context);
+        if (checkpoint.isResumable(unreadOnly)
+                && checkpoint.verify(this.client, API_SUBS_LIMIT)) {
+            Log.d(TAG, debugPrefix + " resumed. phase " + checkpoint.getPhase()
+                + ", subs offset " + checkpoint.getSubsOffset());
+        } else {
+            checkpoint.start(unreadOnly);
+        }
 
         SubsHandler subsHandler = new SubsHandler();
-        syncSubs(unreadOnly, subsHandler);
+        ImageFetcher images = new ImageFetcher(this.context, this.client);
+        int syncCount;
+        try {
+            if (checkpoint.getPhase() == SyncCheckpoint.PHASE_SUBS) {
+                syncSubs(unreadOnly, subsHandler, checkpoint);
+                checkpoint.itemsStarted();
+            }
+            syncCount = syncSubsItems(SQL_SUB_MODIFIED, unreadOnly, images);
+            checkpoint.finish();
+            // NOTE: item rows are committed, images are cached later
+            images.start();
+        } finally {
+            subsHandler.icons.await();
+            images.await();
+        }
+        try {
+            // NOTE: read marks are applied before unread items are kept
+            ReadJournal.getInstance(this.context).flush();
+            new ItemRetention(this.context).run();
+        } catch (SQLException e) {
+            Log.w(TAG, "item retention failed", e);
+        }
+
+        Log.d(TAG, debugPrefix + " finished. transferred "
+            + (this.client.getTransferredBytes() - transferredBytes)
+            + " bytes, decoded "
+            + (this.client.getDecodedBytes() - decodedBytes) + " bytes");
+        return syncCount;
+    }
+
+    /**
+     * item-syncs the subscriptions predicted to have changed by their
+     * change_interval, without reading /api/subs.
+     */
+    public int syncPredicted() throws IOException, ReaderException {
+        if (!isLogined()) {
+            login();
+        }
+        boolean unreadOnly = ReaderPreferences.isSyncUnreadOnly(this.context);
+        long now = System.currentTimeMillis() / 1000;
+        ImageFetcher images = new ImageFetcher(this.context, this.client);
+        int syncCount;
+        try {
+            syncCount = syncSubsItems(SyncSchedule.sqlPredictedWhere(now),
+                unreadOnly, images);
+            images.start();
+        } finally {
+            images.await();
+        }
+        Log.d(TAG, "sync predicted finished. " + syncCount + " items");
+        return syncCount;
+    }
 
+    private int syncSubsItems(String subWhere, boolean unreadOnly,
+            ImageFetcher images) throws IOException, ReaderException {
         ReaderException firstError = null;
         int syncCount = 0;
-        String subWhere = Subscription._MODIFIED_TIME
-            + " <> " + Subscription._ITEM_SYNC_TIME;
         ContentResolver cr = this.context.getContentResolver();
+        List<Subscription> subs = new ArrayList<Subscription>();
         Subscription.FilterCursor cursor = new Subscription.FilterCursor(
-            cr.query(Subscription.CONTENT_URI, null, subWhere, null, null));
+            cr.query(Subscription.CONTENT_URI, null, subWhere, null,
+                SQL_SYNC_ORDER));
         try {
             while (cursor.moveToNext()) {
-                Subscription sub = cursor.getSubscription();
-                Log.d(TAG, "sync items for subscription " + sub.getUri());
+                subs.add(cursor.getSubscription());
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int parallelism = ReaderPreferences.getSyncParallelism(this.context);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        List<Long> fetchedIds = new ArrayList<Long>();
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>(subs.size());
+            for (Subscription sub: subs) {
+                futures.add(executor.submit(new ItemsSyncTask(sub, unreadOnly,
+                    sub.isOfflineImages() ? images: null)));
+            }
+            // NOTE: the pool takes tasks in priority order. collect in the
+            // same order, so firstError is the same as serial sync
+            for (int i = 0; i < futures.size(); i++) {
                 try {
-                    syncCount += syncItems(sub, null, unreadOnly);
-                } catch (ReaderException e) {
-                    if (firstError == null) {
-                        firstError = e;
+                    int count = futures.get(i).get();
+                    syncCount += count;
+                    if (count > 0) {
+                        fetchedIds.add(subs.get(i).getId());
+                    }
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof ReaderException) {
+                        if (firstError == null) {
+                            firstError = (ReaderException) cause;
+                        }
+                    } else if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else {
+                        throw (Error) cause;
                     }
-                }
-                try {
-                    Thread.sleep(100);
                 } catch (InterruptedException e) {
                     break;
                 }
             }
         } finally {
-            cursor.close();
+            executor.shutdownNow();
         }
 
         if (ReaderPreferences.isAutoTouchAll(this.context)) {
-            for (long id: subsHandler.ids) {
+            touchAll(fetchedIds);
+        }
+
+        return syncCount;
+    }
+
+    /**
+     * marks the subscriptions read on the server, concurrently. ids that
+     * fail here stay queued in the preferences and are retried next sync.
+     */
+    private void touchAll(List<Long> subIds) {
+        Set<Long> queue = new LinkedHashSet<Long>(
+            ReaderPreferences.getTouchAllQueue(this.context));
+        queue.addAll(subIds);
+        if (queue.isEmpty()) {
+            return;
+        }
+        // NOTE: queued before the requests, a killed sync retries them
+        ReaderPreferences.setTouchAllQueue(this.context, queue);
+
+        List<Long> ids = new ArrayList<Long>(queue);
+        int parallelism = ReaderPreferences.getSyncParallelism(this.context);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(ids.size());
+            for (long id: ids) {
+                futures.add(executor.submit(new TouchAllTask(id)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                long id = ids.get(i);
                 try {
-                    this.client.touchAll(id);
-                } catch (ParseException e) {
-                    e.printStackTrace();
+                    if (!futures.get(i).get()) {
+                        // NOTE: the server answered, a retry gets the same
+                        Log.w(TAG, "touch all refused " + id);
+                    }
+                    queue.remove(id);
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "touch all failed " + id, e.getCause());
+                } catch (InterruptedException e) {
+                    break;
                 }
             }
+        } finally {
+            executor.shutdownNow();
+            ReaderPreferences.setTouchAllQueue(this.context, queue);
         }
-
-        Log.d(TAG, debugPrefix + " finished.");
-        return syncCount;
+        Log.d(TAG, "touch all " + (ids.size() - queue.size()) + " done, "
+            + queue.size() + " queued");
     }
 
     public int syncSubs(boolean unreadOnly) throws IOException, ReaderException {
-        return syncSubs(unreadOnly, null);
+        SubsHandler subsHandler = new SubsHandler();
+        int syncCount = syncSubs(unreadOnly, subsHandler, null);
+        subsHandler.icons.await();
+        return syncCount;
     }
 
-    private int syncSubs(boolean unreadOnly, SubsHandler subsHandler)
-            throws IOException, ReaderException {
+    /** reads /api/subs from the checkpoint offset, checkpoint may be null */
+    private int syncSubs(boolean unreadOnly, SubsHandler subsHandler,
+            SyncCheckpoint checkpoint) throws IOException, ReaderException {
         if (!isLogined()) {
             login();
         }
-        if (subsHandler == null) {
-            subsHandler = new SubsHandler();
-        }
-
-        final int limit = 100;
+        final int limit = API_SUBS_LIMIT;
+        int offset = (checkpoint == null) ? 0: checkpoint.getSubsOffset();
         int syncCount = 0;
         int len = 0;
         try {
             do {
-                this.client.handleSubs(unreadOnly, syncCount, limit, subsHandler);
-                len = subsHandler.counter;
+                subsHandler.page.reset();
+                len = this.client.decodeSubs(unreadOnly, offset, limit,
+                    subsHandler);
+                if (checkpoint != null) {
+                    checkpoint.subsPage(offset, len, subsHandler.page.getValue());
+                }
+                offset += len;
                 syncCount += len;
             } while (len == limit);
         } catch (ParseException e) {
             throw new ReaderException("json parse error", e);
         }
 
+        Log.d(TAG, "sync subs inserted " + subsHandler.inserted
+            + ", updated " + subsHandler.updated
+            + ", unchanged " + subsHandler.unchanged);
+        // NOTE: rows are committed, icons are filled in later
+        subsHandler.icons.start();
         return syncCount;
     }
 
@@ -161,6 +311,11 @@ public class ReaderManager {
 
     public int syncItems(Subscription sub, Uri subUri, int syncType)
             throws IOException, ReaderException {
+        return syncItems(sub, subUri, syncType, null);
+    }
+
+    private int syncItems(Subscription sub, Uri subUri, int syncType,
+            ImageFetcher images) throws IOException, ReaderException {
         if (!isLogined()) {
             login();
         }
@@ -170,11 +325,12 @@ public class ReaderManager {
             subUri = ContentUris.withAppendedId(Subscription.CONTENT_URI, subId);
         }
         int syncCount = 0;
-        ItemsHandler itemsHandler = new ItemsHandler(subId, sub.getLastItemId());
+        ItemsHandler itemsHandler = new ItemsHandler(subId, sub.getLastItemId(),
+            loadItemIds(subId));
+        itemsHandler.images = images;
         try {
             try {
-                this.client.handleUnread(subId, itemsHandler);
-                syncCount = itemsHandler.counter;
+                syncCount = this.client.decodeUnread(subId, itemsHandler);
             } catch (IOException e) {
                 // NOTE: ignore. if no unread item, server http status 500
             }
@@ -182,32 +338,53 @@ public class ReaderManager {
                     || (syncCount == 0 && syncType == ITEM_SYNC_WITH_READ_IF_NO_UNREAD)) {
                 itemsHandler.unread = false;
                 itemsHandler.continueIfExists = (syncType == ITEM_SYNC_WITH_READ);
-                this.client.handleAll(subId, syncCount, API_ALL_LIMIT, itemsHandler);
-                syncCount += itemsHandler.counter;
+                syncCount += this.client.decodeAll(subId, syncCount,
+                    API_ALL_LIMIT, itemsHandler);
             }
+        } catch (ParseException e) {
+            throw new ReaderException("json parse error", e);
+        }
 
-            String where = Item._SUBSCRIPTION_ID + " = " + subId
-                + " and " + Item._UNREAD + " = 1";
-            ContentResolver cr = this.context.getContentResolver();
-            Cursor cursor = cr.query(Item.CONTENT_URI, Item.SELECT_COUNT,
-                where, null, null);
-            cursor.moveToNext();
-            int unreadCount = cursor.getInt(0);
-            cursor.close();
+        // NOTE: item rows and subscription sync state are written together
+        ContentResolver cr = this.context.getContentResolver();
+        cr.query(ReaderProvider.URI_TXN_BEGIN, null, null, null, null);
+        try {
+            List<ContentValues> items = itemsHandler.items;
+            if (items.size() > 0) {
+                cr.bulkInsert(Item.CONTENT_URI,
+                    items.toArray(new ContentValues[items.size()]));
+            }
 
             ContentValues subValues = new ContentValues();
             subValues.put(Subscription._ITEM_SYNC_TIME, subModifiedTime);
-            subValues.put(Subscription._UNREAD_COUNT, unreadCount);
+            subValues.put(Subscription._CHECK_TIME,
+                System.currentTimeMillis() / 1000);
             if (itemsHandler.lastItemId > 0) {
                 subValues.put(Subscription._LAST_ITEM_ID, itemsHandler.lastItemId);
             }
             cr.update(subUri, subValues, null, null);
-        } catch (ParseException e) {
-            throw new ReaderException("json parse error", e);
+            cr.query(ReaderProvider.URI_TXN_SUCCESS, null, null, null, null);
+        } finally {
+            cr.query(ReaderProvider.URI_TXN_END, null, null, null, null);
         }
         return syncCount;
     }
 
+    private LongSet loadItemIds(long subId) {
+        ContentResolver cr = this.context.getContentResolver();
+        Cursor cursor = cr.query(Item.CONTENT_URI, Item.SELECT_ID,
+            Item._SUBSCRIPTION_ID + " = " + subId, null, null);
+        try {
+            LongSet ids = new LongSet(cursor.getCount() + API_ALL_LIMIT);
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
     public int syncPins() throws IOException, ReaderException {
         if (!isLogined()) {
             login();
@@ -236,13 +413,15 @@ public class ReaderManager {
             }
 
             PinsHandler pinsHandler = new PinsHandler();
+            int count;
             try {
-                this.client.handlePinAll(pinsHandler);
+                count = this.client.decodePinAll(pinsHandler);
             } catch (ParseException e) {
                 throw new ReaderException("json parse error", e);
             }
+            pinsHandler.replacePins();
             cr.query(ReaderProvider.URI_TXN_SUCCESS, null, null, null, null);
-            return pinsHandler.counter;
+            return count;
         } finally {
             cr.query(ReaderProvider.URI_TXN_END, null, null, null, null);
         }
@@ -283,15 +462,7 @@ public class ReaderManager {
     }
 
     public static int countUnread(Context context) {
-        ContentResolver cr = context.getContentResolver();
-        Cursor cursor = cr.query(Item.CONTENT_URI, Item.SELECT_COUNT,
-            Item._UNREAD + " = 1", null, null);
-        try {
-            cursor.moveToNext();
-            return cursor.getInt(0);
-        } finally {
-            cursor.close();
-        }
+        return Item.countUnread(context.getContentResolver());
     }
 
     public boolean pinAdd(final String uri, final String title, boolean nowait)
@@ -406,268 +577,252 @@ public class ReaderManager {
         }
     }
 
-    private class SubsHandler extends ContentHandlerAdapter {
-
-        private ContentResolver cr;
-        private ContentValues values;
-        private int unreadCount;
-        private int counter;
-        private List<Long> ids = new ArrayList<Long>();
+    private class SubsHandler implements ApiDecoder.SubscriptionHandler {
+
+        private final ContentResolver cr
+            = ReaderManager.this.context.getContentResolver();
+        private final IconFetcher icons = new IconFetcher(
+            ReaderManager.this.context, ReaderManager.this.client);
+        private final SyncCheckpoint.PageFingerprint page
+            = new SyncCheckpoint.PageFingerprint();
+        private long[] knownIds;
+        private long[] knownFingerprints;
+        private long[] knownModifiedTimes;
+        private long[] knownIntervals;
+        private int inserted;
+        private int updated;
+        private int unchanged;
+
+        public boolean subscription(Subscription sub) throws IOException {
+            long id = sub.getId();
+            this.page.subscription(sub);
+
+            if (this.knownIds == null) {
+                loadFingerprints();
+            }
+            int index = Arrays.binarySearch(this.knownIds, id);
+            long fingerprint = fingerprint(sub.getUri(), sub.getTitle(),
+                sub.getIconUri(), sub.getRate(), sub.getSubscribersCount(),
+                sub.getFolder(), sub.getModifiedTime(), sub.getUnreadCount());
+            if (index >= 0 && this.knownFingerprints[index] == fingerprint) {
+                this.unchanged++;
+                return true;
+            }
 
-        public void startJSON() throws ParseException, IOException {
-            this.counter = 0;
-            this.cr = ReaderManager.this.context.getContentResolver();
-        }
+            ContentValues values = new ContentValues();
+            values.put(Subscription._ID, id);
+            values.put(Subscription._TITLE, sub.getTitle());
+            values.put(Subscription._ICON_URI, sub.getIconUri());
+            values.put(Subscription._URI, sub.getUri());
+            values.put(Subscription._FOLDER, sub.getFolder());
+            values.put(Subscription._RATE, sub.getRate());
+            values.put(Subscription._SUBSCRIBERS_COUNT, sub.getSubscribersCount());
+            values.put(Subscription._MODIFIED_TIME, sub.getModifiedTime());
+            values.put(Subscription._SERVER_UNREAD_COUNT, sub.getUnreadCount());
+            if (index >= 0) {
+                long interval = changeInterval(this.knownIntervals[index],
+                    this.knownModifiedTimes[index], sub.getModifiedTime());
+                if (interval > 0) {
+                    values.put(Subscription._CHANGE_INTERVAL, interval);
+                }
+            }
 
-        public boolean startObject() throws ParseException, IOException {
-            this.values = new ContentValues();
-            this.unreadCount = 0;
-            this.counter++;
+            Uri uri = ContentUris.withAppendedId(Subscription.CONTENT_URI, id);
+            if (this.cr.update(uri, values, null, null) == 0) {
+                this.cr.insert(Subscription.CONTENT_URI, values);
+                this.inserted++;
+                this.icons.add(id, sub.getIconUri());
+            } else {
+                this.updated++;
+            }
             return true;
         }
 
-        public boolean endObject() throws ParseException, IOException {
-            if (this.values != null) {
-                long id = this.values.getAsLong(Subscription._ID);
-                Uri uri = ContentUris.withAppendedId(Subscription.CONTENT_URI, id);
-                if (this.cr.update(uri, this.values, null, null) == 0) {
-                    try {
-                        bindIcon();
-                    } catch (IOException e) {
-                        // ignore error for icon
-                    }
-                    this.values.put(Subscription._UNREAD_COUNT, this.unreadCount);
-                    this.cr.insert(Subscription.CONTENT_URI, this.values);
-                    ReaderManager.this.context.sendBroadcast(
-                        new Intent(ReaderService.ACTION_SYNC_SUBS_FINISHED));
+        private void loadFingerprints() {
+            Cursor cursor = this.cr.query(Subscription.CONTENT_URI,
+                Subscription.SELECT_FINGERPRINT, null, null,
+                Subscription._ID + " asc");
+            try {
+                int count = cursor.getCount();
+                long[] ids = new long[count];
+                long[] fingerprints = new long[count];
+                long[] modifiedTimes = new long[count];
+                long[] intervals = new long[count];
+                int n = 0;
+                while (cursor.moveToNext() && n < count) {
+                    ids[n] = cursor.getLong(0);
+                    fingerprints[n] = fingerprint(cursor.getString(1),
+                        cursor.getString(2), cursor.getString(3),
+                        cursor.getInt(4), cursor.getInt(5),
+                        cursor.getString(6), cursor.getLong(7),
+                        cursor.getInt(9));
+                    modifiedTimes[n] = cursor.getLong(7);
+                    intervals[n] = cursor.getLong(8);
+                    n++;
                 }
-                this.ids.add(id);
-                this.values = null;
+                this.knownIds = ids;
+                this.knownFingerprints = fingerprints;
+                this.knownModifiedTimes = modifiedTimes;
+                this.knownIntervals = intervals;
+            } finally {
+                cursor.close();
             }
-            return true;
         }
 
-        public boolean primitive(Object value) throws ParseException, IOException {
-            if (this.key == null || this.values == null) {
-                return true;
-            } else if (this.key.equals("subscribe_id")) {
-                this.values.put(Subscription._ID, asLong(value));
-            } else if (this.key.equals("title")) {
-                this.values.put(Subscription._TITLE, asString(value));
-            } else if (this.key.equals("icon")) {
-                String iconUri = asString(value);
-                this.values.put(Subscription._ICON_URI, iconUri);
-            } else if (this.key.equals("link")) {
-                this.values.put(Subscription._URI, asString(value));
-            } else if (this.key.equals("folder")) {
-                this.values.put(Subscription._FOLDER, asString(value));
-            } else if (this.key.equals("rate")) {
-                this.values.put(Subscription._RATE, asInt(value));
-            } else if (this.key.equals("unread_count")) {
-                this.unreadCount = asInt(value);
-            } else if (this.key.equals("subscribers_count")) {
-                this.values.put(Subscription._SUBSCRIBERS_COUNT, asInt(value));
-            } else if (this.key.equals("modified_on")) {
-                this.values.put(Subscription._MODIFIED_TIME, asLong(value));
+        /**
+         * moves the average of seconds between changes, weighting the
+         * latest change by a quarter. returns 0 if modified_on did not move.
+         */
+        private long changeInterval(long interval, long oldModifiedTime,
+                long newModifiedTime) {
+            if (oldModifiedTime <= 0 || newModifiedTime <= oldModifiedTime) {
+                return 0;
             }
-            return true;
+            long delta = newModifiedTime - oldModifiedTime;
+            return (interval <= 0) ? delta: (interval * 3 + delta) / 4;
+        }
+
+        // NOTE: unread_count drops without modified_on, read on the web
+        private long fingerprint(String uri, String title, String iconUri,
+                int rate, int subscribersCount, String folder,
+                long modifiedTime, int unreadCount) {
+            long h = 0xcbf29ce484222325L;
+            h = fingerprint(h, uri);
+            h = fingerprint(h, title);
+            h = fingerprint(h, iconUri);
+            h = fingerprint(h, rate);
+            h = fingerprint(h, subscribersCount);
+            h = fingerprint(h, folder);
+            h = fingerprint(h, modifiedTime);
+            h = fingerprint(h, unreadCount);
+            return h;
+        }
+
+        private long fingerprint(long h, String value) {
+            if (value == null) {
+                return fingerprint(h, -1L);
+            }
+            int len = value.length();
+            for (int i = 0; i < len; i++) {
+                h = (h ^ value.charAt(i)) * 0x100000001b3L;
+            }
+            return fingerprint(h, (long) len);
         }
 
-        private void bindIcon() throws IOException {
-            String iconUri = this.values.getAsString(Subscription._ICON_URI);
-            if (TextUtils.isEmpty(iconUri)) {
-                return;
-            }
-            Bitmap icon = null;
-            InputStream in = ReaderManager.this.client.doGetInputStream(iconUri);
-            try {
-                icon = BitmapFactory.decodeStream(in);
-            } finally {
-                in.close();
+        private long fingerprint(long h, long value) {
+            for (int i = 0; i < 64; i += 16) {
+                h = (h ^ ((value >>> i) & 0xffff)) * 0x100000001b3L;
             }
-            int size = icon.getWidth() * icon.getHeight() * 2;
-            ByteArrayOutputStream out = new ByteArrayOutputStream(size);
-            icon.compress(Bitmap.CompressFormat.PNG, 100, out);
-            out.flush();
-            out.close();
-            this.values.put(Subscription._ICON, out.toByteArray());
+            return h;
         }
     }
 
-    private class ItemsHandler extends ContentHandlerAdapter {
+    private class ItemsHandler implements ApiDecoder.ItemHandler {
 
         private final long subId;
         private final long subLastItemId;
-        private ContentResolver cr;
-        private ContentValues values;
-        private boolean startItems;
-        private int counter;
+        private final LongSet knownIds;
+        private final List<ContentValues> items = new ArrayList<ContentValues>();
         private boolean unread = true;
         private boolean continueIfExists;
         private long lastItemId;
+        private ImageFetcher images;
 
-        private ItemsHandler(long subId, long lastItemId) {
+        private ItemsHandler(long subId, long lastItemId, LongSet knownIds) {
             this.subId = subId;
             this.subLastItemId = lastItemId;
+            this.knownIds = knownIds;
         }
 
-        public void startJSON() throws ParseException, IOException {
-            this.counter = 0;
-            this.cr = ReaderManager.this.context.getContentResolver();
-        }
-
-        public boolean startObject() throws ParseException, IOException {
-            if (this.startItems) {
-                this.values = new ContentValues();
-                this.values.put(Item._SUBSCRIPTION_ID, this.subId);
-                this.counter++;
+        public boolean item(Item item) throws IOException {
+            long id = item.getId();
+            if (!continueIfExists && id <= this.subLastItemId) {
+                return continueIfExists;
             }
-            return true;
-        }
-
-        public boolean endObject() throws ParseException, IOException {
-            if (this.startItems) {
-                long id = this.values.getAsLong(Item._ID);
-                if (!continueIfExists && id <= this.subLastItemId) {
-                    return continueIfExists;
-                }
-                Uri uri = ContentUris.withAppendedId(Item.CONTENT_URI, id);
-                Cursor cursor = this.cr.query(uri, null, null, null, null);
-                boolean exists = (cursor.getCount() > 0);
-                cursor.close();
-                if (exists) {
-                    return continueIfExists;
-                }
-
-                this.values.put(Item._UNREAD, (this.unread ? 1: 0));
-                this.cr.insert(Item.CONTENT_URI, this.values);
-                this.values = null;
-
-                this.lastItemId = Math.max(this.lastItemId, id);
+            if (!this.knownIds.add(id)) {
+                return continueIfExists;
             }
-            return true;
-        }
 
-        public boolean startArray() throws ParseException, IOException {
-            if (!this.startItems && this.key.equals("items")) {
-                this.startItems = true;
+            ContentValues values = new ContentValues();
+            values.put(Item._ID, id);
+            values.put(Item._SUBSCRIPTION_ID, this.subId);
+            values.put(Item._TITLE, item.getTitle());
+            values.put(Item._BODY, item.getBody());
+            values.put(Item._SUMMARY, Item.summaryOf(item.getBody()));
+            values.put(Item._AUTHOR, item.getAuthor());
+            values.put(Item._URI, item.getUri());
+            values.put(Item._CREATED_TIME, item.getCreatedTime());
+            values.put(Item._MODIFIED_TIME, item.getModifiedTime());
+            values.put(Item._UNREAD, (this.unread ? 1: 0));
+            this.items.add(values);
+            if (this.images != null) {
+                this.images.add(item.getBody());
             }
-            return true;
-        }
-
-        public boolean endArray() throws ParseException, IOException {
-            if (this.startItems) {
-                this.startItems = false;
-            }
-            return true;
-        }
 
-        public boolean primitive(Object value)
-                throws ParseException, IOException {
-            if (this.key == null || this.values == null) {
-                return true;
-            } else if (this.key.equals("id")) {
-                this.values.put(Item._ID, asLong(value));
-            } else if (this.key.equals("title")) {
-                this.values.put(Item._TITLE, asString(value));
-            } else if (this.key.equals("body")) {
-                this.values.put(Item._BODY, asString(value));
-            } else if (this.key.equals("author")) {
-                this.values.put(Item._AUTHOR, asString(value));
-            } else if (this.key.equals("link")) {
-                this.values.put(Item._URI, asString(value));
-            } else if (this.key.equals("created_on")) {
-                this.values.put(Item._CREATED_TIME, asLong(value));
-            } else if (this.key.equals("modified_on")) {
-                this.values.put(Item._MODIFIED_TIME, asLong(value));
-            }
+            this.lastItemId = Math.max(this.lastItemId, id);
             return true;
         }
     }
 
-    private class PinsHandler extends ContentHandlerAdapter {
-
-        private ContentResolver cr;
-        private ContentValues values;
-        private int counter;
+    private class PinsHandler implements ApiDecoder.PinHandler {
 
-        public void startJSON() throws ParseException, IOException {
-            this.counter = 0;
-            this.cr = ReaderManager.this.context.getContentResolver();
-            cr.delete(Pin.CONTENT_URI, null, null);
-        }
+        private final List<ContentValues> pins = new ArrayList<ContentValues>();
 
-        public boolean startObject() throws ParseException, IOException {
-            this.values = new ContentValues();
-            this.counter++;
+        public boolean pin(Pin pin) throws IOException {
+            ContentValues values = new ContentValues();
+            values.put(Pin._URI, pin.getUri());
+            values.put(Pin._TITLE, pin.getTitle());
+            values.put(Pin._CREATED_TIME, pin.getCreatedTime());
+            values.put(Pin._ACTION, Pin.ACTION_NONE);
+            this.pins.add(values);
             return true;
         }
 
-        public boolean endObject() throws ParseException, IOException {
-            if (this.values != null) {
-                this.values.put(Pin._ACTION, Pin.ACTION_NONE);
-                this.cr.insert(Pin.CONTENT_URI, this.values);
-                this.values = null;
-            }
-            return true;
-        }
-
-        public boolean primitive(Object value)
-                throws ParseException, IOException {
-            if (this.key == null || this.values == null) {
-                return true;
-            } else if (this.key.equals("link")) {
-                this.values.put(Pin._URI, asString(value));
-            } else if (this.key.equals("title")) {
-                this.values.put(Pin._TITLE, asString(value));
-            } else if (this.key.equals("created_on")) {
-                this.values.put(Pin._CREATED_TIME, asLong(value));
-            }
-            return true;
+        private void replacePins() {
+            ContentResolver cr = ReaderManager.this.context.getContentResolver();
+            cr.delete(Pin.CONTENT_URI, null, null);
+            cr.bulkInsert(Pin.CONTENT_URI,
+                this.pins.toArray(new ContentValues[this.pins.size()]));
         }
     }
 
-    private static abstract class ContentHandlerAdapter
-            implements ContentHandler {
-
-        protected String key;
+    private class TouchAllTask implements Callable<Boolean> {
 
-        public void startJSON() throws ParseException, IOException {
-        }
-
-        public void endJSON() throws ParseException, IOException {
-        }
-
-        public boolean startObject() throws ParseException, IOException {
-            return true;
-        }
+        private final long subId;
 
-        public boolean endObject() throws ParseException, IOException {
-            return true;
+        private TouchAllTask(long subId) {
+            this.subId = subId;
         }
 
-        public boolean startObjectEntry(String key)
-                throws ParseException, IOException {
-            this.key = key;
-            return true;
+        public Boolean call() throws IOException, ParseException, ReaderException {
+            return ReaderManager.this.client.touchAll(this.subId);
         }
+    }
 
-        public boolean endObjectEntry() throws ParseException, IOException {
-            this.key = null;
-            return true;
-        }
+    private class ItemsSyncTask implements Callable<Integer> {
 
-        public boolean startArray() throws ParseException, IOException {
-            return true;
-        }
+        private final Subscription sub;
+        private final boolean unreadOnly;
+        private final ImageFetcher images;
 
-        public boolean endArray() throws ParseException, IOException {
-            return true;
+        private ItemsSyncTask(Subscription sub, boolean unreadOnly,
+                ImageFetcher images) {
+            this.sub = sub;
+            this.unreadOnly = unreadOnly;
+            this.images = images;
         }
 
-        public boolean primitive(Object value)
-                throws ParseException, IOException {
-            return true;
+        public Integer call() throws IOException, ReaderException {
+            Log.d(TAG, "sync items for subscription " + this.sub.getUri());
+            int syncType = (this.unreadOnly)
+                ? ITEM_SYNC_UNREAD_ONLY: ITEM_SYNC_WITH_READ_IF_NO_UNREAD;
+            int count = syncItems(this.sub, null, syncType, this.images);
+            if (count > 0) {
+                // NOTE: coalesced, lists refresh at most once a window
+                ChangeNotifier.getInstance(ReaderManager.this.context)
+                    .subSynced(this.sub.getId(), count);
+            }
+            return count;
         }
     }
 }
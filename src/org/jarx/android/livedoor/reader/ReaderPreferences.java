@@ -1,5 +1,8 @@
 package org.jarx.android.livedoor.reader;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
@@ -12,6 +15,7 @@ public class ReaderPreferences {
     public static final String KEY_SUBS_SORT = "subs_sort";
     public static final String KEY_SYNC_INTERVAL_HOURS = "sync_interval_hours";
     public static final String KEY_SYNC_UNREAD_ONLY = "sync_unread_only";
+    public static final String KEY_SYNC_PARALLELISM = "sync_parallelism";
     public static final String KEY_SYNC_NOTIFIABLE = "sync_notifiable";
     public static final String KEY_AUTO_TOUCH_ALL = "auto_touch_all";
     public static final String KEY_VIEW_UNREAD_ONLY = "view_unread_only";
@@ -20,6 +24,12 @@ public class ReaderPreferences {
     public static final String KEY_ITEM_BODY_FONT_SIZE = "item_body_font_size";
     public static final String KEY_OMIT_ITEM_LIST = "omit_item_list";
     public static final String KEY_LAST_SYNC_TIME = "last_sync_time";
+    public static final String KEY_TOUCH_ALL_QUEUE = "touch_all_queue";
+    public static final String KEY_RETENTION_MAX_ITEMS = "retention_max_items";
+    public static final String KEY_RETENTION_MAX_DAYS = "retention_max_days";
+    public static final String KEY_RETENTION_KEEP_UNREAD = "retention_keep_unread";
+    public static final String KEY_RETENTION_KEEP_PINNED = "retention_keep_pinned";
+    public static final String KEY_IMAGE_CACHE_SIZE = "image_cache_size";
 
     public static final int SUBS_VIEW_FLAT = 1;
     public static final int SUBS_VIEW_FOLDER = 2;
@@ -66,6 +76,13 @@ public class ReaderPreferences {
         editor.commit();
     }
 
+    public static void putString(Context c, String name, String value) {
+        SharedPreferences sp = getPreferences(c);
+        SharedPreferences.Editor editor = sp.edit();
+        editor.putString(name, value);
+        editor.commit();
+    }
+
     public static String getLoginId(Context c) {
         return getString(c, KEY_LOGIN_ID);
     }
@@ -118,6 +135,52 @@ public class ReaderPreferences {
         return getBoolean(c, KEY_SYNC_UNREAD_ONLY, true);
     }
 
+    /** concurrent api requests of a sync, one per pooled api connection */
+    public static int getSyncParallelism(Context c) {
+        String n = getString(c, KEY_SYNC_PARALLELISM);
+        int parallelism = ApiClient.MAX_CONNECTIONS;
+        if (n != null && n.length() != 0) {
+            parallelism = Integer.parseInt(n);
+        }
+        return Math.max(1, Math.min(parallelism, ApiClient.MAX_CONNECTIONS));
+    }
+
+    /** items kept per subscription, 0 for unlimited */
+    public static int getRetentionMaxItems(Context c) {
+        String n = getString(c, KEY_RETENTION_MAX_ITEMS);
+        if (n != null && n.length() != 0) {
+            return Math.max(0, Integer.parseInt(n));
+        }
+        return 0;
+    }
+
+    /** days items are kept, 0 for unlimited */
+    public static int getRetentionMaxDays(Context c) {
+        String n = getString(c, KEY_RETENTION_MAX_DAYS);
+        if (n != null && n.length() != 0) {
+            return Math.max(0, Integer.parseInt(n));
+        }
+        return 0;
+    }
+
+    public static boolean isRetentionKeepUnread(Context c) {
+        return getBoolean(c, KEY_RETENTION_KEEP_UNREAD, true);
+    }
+
+    public static boolean isRetentionKeepPinned(Context c) {
+        return getBoolean(c, KEY_RETENTION_KEEP_PINNED, true);
+    }
+
+    /** bytes of the offline image cache, the preference is in MB */
+    public static long getImageCacheBytes(Context c) {
+        String n = getString(c, KEY_IMAGE_CACHE_SIZE);
+        long size = 32;
+        if (n != null && n.length() != 0) {
+            size = Math.max(0, Integer.parseInt(n));
+        }
+        return size * 1024 * 1024;
+    }
+
     public static boolean isSyncNotifiable(Context c) {
         return getBoolean(c, KEY_SYNC_NOTIFIABLE, true);
     }
@@ -158,4 +221,32 @@ public class ReaderPreferences {
     public static void setLastSyncTime(Context c, long value) {
         putLong(c, KEY_LAST_SYNC_TIME, value);
     }
+
+    /** subscription ids to touch on the server, left by earlier syncs */
+    public static List<Long> getTouchAllQueue(Context c) {
+        List<Long> ids = new ArrayList<Long>();
+        String queue = getString(c, KEY_TOUCH_ALL_QUEUE);
+        if (queue == null || queue.length() == 0) {
+            return ids;
+        }
+        for (String id: queue.split(",")) {
+            try {
+                ids.add(Long.parseLong(id));
+            } catch (NumberFormatException e) {
+                // NOTE: ignore broken entry
+            }
+        }
+        return ids;
+    }
+
+    public static void setTouchAllQueue(Context c, Collection<Long> ids) {
+        StringBuilder buff = new StringBuilder(ids.size() * 8);
+        for (long id: ids) {
+            if (buff.length() > 0) {
+                buff.append(",");
+            }
+            buff.append(id);
+        }
+        putString(c, KEY_TOUCH_ALL_QUEUE, new String(buff));
+    }
 }
@@ -1,17 +1,27 @@
 package org.jarx.android.livedoor.reader;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.provider.BaseColumns;
 import android.text.TextUtils;
@@ -35,8 +45,16 @@ public class ReaderProvider extends ContentProvider {
         = SUB_CONTENT_URI_NAME + "/rate";
     public static final String ITEM_CONTENT_URI_NAME
         = "content://" + AUTHORITY + "/" + Item.TABLE_NAME;
+    public static final String ITEM_SEARCH_CONTENT_URI_NAME
+        = ITEM_CONTENT_URI_NAME + "/search";
+    public static final String ITEM_UNREAD_COUNT_CONTENT_URI_NAME
+        = ITEM_CONTENT_URI_NAME + "/unread_count";
     public static final String PIN_CONTENT_URI_NAME
         = "content://" + AUTHORITY + "/" + Pin.TABLE_NAME;
+    public static final String ICON_CONTENT_URI_NAME
+        = "content://" + AUTHORITY + "/" + Icon.TABLE_NAME;
+    public static final String READ_JOURNAL_CONTENT_URI_NAME
+        = "content://" + AUTHORITY + "/" + ReadJournal.TABLE_NAME;
 
     public static final Uri URI_TXN_BEGIN = Uri.parse(BEGIN_TXN_URI_NAME);
     public static final Uri URI_TXN_SUCCESS = Uri.parse(SUCCESS_TXN_URI_NAME);
@@ -44,7 +62,7 @@ public class ReaderProvider extends ContentProvider {
 
     private static final String TAG = "ReaderProvider";
     private static final String DATABASE_NAME = "reader.db";
-    private static final int DATABASE_VERSION = 7;
+    private static final int DATABASE_VERSION = 17;
 
     private static final String CONTENT_TYPE_ITEM
         = "vnd.android.cursor.item/vnd." + AUTHORITY;
@@ -61,8 +79,14 @@ public class ReaderProvider extends ContentProvider {
     private static final int UM_SUBS_RATE = 13;
     private static final int UM_ITEM_ID = 20;
     private static final int UM_ITEMS = 21;
+    private static final int UM_ITEMS_SEARCH = 22;
+    private static final int UM_ITEMS_UNREAD_COUNT = 23;
     private static final int UM_PIN_ID = 30;
     private static final int UM_PINS = 31;
+    private static final int UM_ICON_KEY = 40;
+    private static final int UM_ICONS = 41;
+    private static final int UM_READ_JOURNAL = 60;
+    private static final int UM_READ_JOURNAL_FLUSH = 61;
 
     static {
         uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
@@ -81,15 +105,27 @@ public class ReaderProvider extends ContentProvider {
             Item.TABLE_NAME + "/#", UM_ITEM_ID);
         uriMatcher.addURI(AUTHORITY,
             Item.TABLE_NAME, UM_ITEMS);
+        uriMatcher.addURI(AUTHORITY,
+            Item.TABLE_NAME + "/search", UM_ITEMS_SEARCH);
+        uriMatcher.addURI(AUTHORITY,
+            Item.TABLE_NAME + "/unread_count", UM_ITEMS_UNREAD_COUNT);
         uriMatcher.addURI(AUTHORITY,
             Pin.TABLE_NAME + "/#", UM_PIN_ID);
         uriMatcher.addURI(AUTHORITY,
             Pin.TABLE_NAME, UM_PINS);
+        uriMatcher.addURI(AUTHORITY,
+            Icon.TABLE_NAME + "/*", UM_ICON_KEY);
+        uriMatcher.addURI(AUTHORITY,
+            Icon.TABLE_NAME, UM_ICONS);
+        uriMatcher.addURI(AUTHORITY,
+            ReadJournal.TABLE_NAME, UM_READ_JOURNAL);
+        uriMatcher.addURI(AUTHORITY,
+            ReadJournal.TABLE_NAME + "/flush", UM_READ_JOURNAL_FLUSH);
     }
 
     static String sqlCreateIndex(String tableName, String columnName) {
         StringBuilder buff = new StringBuilder(128);
-        buff.append("create index idx_");
+        buff.append("create index if not exists idx_");
         buff.append(tableName);
         buff.append("_");
         buff.append(columnName);
@@ -104,7 +140,7 @@ public class ReaderProvider extends ContentProvider {
     static String sqlCreateIndex(String tableName, String indexName,
             String ... columnNames) {
         StringBuilder buff = new StringBuilder(128);
-        buff.append("create index ");
+        buff.append("create index if not exists ");
         buff.append(indexName);
         buff.append(" on ");
         buff.append(tableName);
@@ -119,6 +155,10 @@ public class ReaderProvider extends ContentProvider {
         return new String(buff);
     }
 
+    static String sqlDropIndex(String tableName, String columnName) {
+        return "drop index if exists idx_" + tableName + "_" + columnName;
+    }
+
     private static String sqlIdWhere(String id, String where) {
         StringBuilder buff = new StringBuilder(128);
         buff.append(BaseColumns._ID);
@@ -131,10 +171,15 @@ public class ReaderProvider extends ContentProvider {
         return new String(buff);
     }
 
-    private static class ReaderOpenHelper extends SQLiteOpenHelper {
+    static class ReaderOpenHelper extends SQLiteOpenHelper {
 
         private ReaderOpenHelper(Context context) {
-            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            this(context, DATABASE_NAME);
+        }
+
+        /** a null name opens an in-memory database */
+        ReaderOpenHelper(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
         }
 
         @Override
@@ -142,12 +187,22 @@ public class ReaderProvider extends ContentProvider {
             db.execSQL(Subscription.SQL_CREATE_TABLE);
             db.execSQL(Item.SQL_CREATE_TABLE);
             db.execSQL(Pin.SQL_CREATE_TABLE);
+            db.execSQL(Icon.SQL_CREATE_TABLE);
+            db.execSQL(ReadJournal.SQL_CREATE_TABLE);
+            db.execSQL(Item.SQL_CREATE_FTS_TABLE);
+            db.execSQL(Item.SQL_CREATE_FTS_DELETE_TRIGGER);
+            db.execSQL(Item.SQL_CREATE_UNREAD_COUNTER_TABLE);
+            db.execSQL(Item.SQL_INIT_UNREAD_COUNTER);
+            for (String sql: Item.SQL_CREATE_UNREAD_TRIGGERS) {
+                db.execSQL(sql);
+            }
             for (String column: Subscription.INDEX_COLUMNS) {
                 db.execSQL(sqlCreateIndex(Subscription.TABLE_NAME, column));
             }
             for (String column: Item.INDEX_COLUMNS) {
                 db.execSQL(sqlCreateIndex(Item.TABLE_NAME, column));
             }
+            db.execSQL(Item.SQL_CREATE_UNREAD_BY_SUB_ID_INDEX);
             for (String column: Pin.INDEX_COLUMNS) {
                 db.execSQL(sqlCreateIndex(Pin.TABLE_NAME, column));
             }
@@ -164,29 +219,112 @@ public class ReaderProvider extends ContentProvider {
             for (String sql: Pin.sqlForUpgrade(oldVersion, newVersion)) {
                 db.execSQL(sql);
             }
+            for (String sql: Icon.sqlForUpgrade(oldVersion, newVersion)) {
+                db.execSQL(sql);
+            }
+            for (String sql: ReadJournal.sqlForUpgrade(oldVersion, newVersion)) {
+                db.execSQL(sql);
+            }
+            Icon.upgradeSubscriptionIcons(db, oldVersion, newVersion);
+            Item.upgradeSearchIndex(db, oldVersion, newVersion);
+            Item.upgradeSummaries(db, oldVersion, newVersion);
         }
     }
 
+    /**
+     * State of a running bulkInsert/applyBatch or URI_TXN_BEGIN
+     * transaction on the current thread. Inserts reuse compiled
+     * statements, and change notifications are collected per table and
+     * handed to the ChangeNotifier once the batch commits.
+     */
+    private static class Batch {
+
+        private final Map<String, DatabaseUtils.InsertHelper> insertHelpers
+            = new HashMap<String, DatabaseUtils.InsertHelper>();
+        private final Set<Uri> notifyUris = new LinkedHashSet<Uri>();
+        private boolean subsInserted;
+        // NOTE: nesting of URI_TXN_BEGIN, the batch ends with the txn
+        // that opened it
+        private boolean txnOwned;
+        private int txnDepth;
+        private boolean txnSuccess;
+        private SQLiteStatement ftsInsert;
+        private SQLiteStatement journalInsert;
+
+        private DatabaseUtils.InsertHelper getInsertHelper(SQLiteDatabase db,
+                String tableName) {
+            DatabaseUtils.InsertHelper helper = this.insertHelpers.get(tableName);
+            if (helper == null) {
+                helper = new DatabaseUtils.InsertHelper(db, tableName);
+                this.insertHelpers.put(tableName, helper);
+            }
+            return helper;
+        }
+
+        private SQLiteStatement getFtsInsert(SQLiteDatabase db) {
+            if (this.ftsInsert == null) {
+                this.ftsInsert = db.compileStatement(Item.SQL_INSERT_FTS);
+            }
+            return this.ftsInsert;
+        }
+
+        private SQLiteStatement getJournalInsert(SQLiteDatabase db) {
+            if (this.journalInsert == null) {
+                this.journalInsert = db.compileStatement(ReadJournal.SQL_INSERT);
+            }
+            return this.journalInsert;
+        }
+
+        private void close() {
+            for (DatabaseUtils.InsertHelper helper: this.insertHelpers.values()) {
+                helper.close();
+            }
+            this.insertHelpers.clear();
+            if (this.ftsInsert != null) {
+                this.ftsInsert.close();
+                this.ftsInsert = null;
+            }
+            if (this.journalInsert != null) {
+                this.journalInsert.close();
+                this.journalInsert = null;
+            }
+        }
+    }
+
+    private final ThreadLocal<Batch> currentBatch = new ThreadLocal<Batch>();
     private ReaderOpenHelper openHelper;
+    private ChangeNotifier notifier;
 
     @Override
     public boolean onCreate() {
         this.openHelper = new ReaderOpenHelper(getContext());
+        this.notifier = ChangeNotifier.getInstance(getContext());
         return true;
     }
 
+    /** replaces the notifier, for tests */
+    void setChangeNotifier(ChangeNotifier notifier) {
+        this.notifier = notifier;
+    }
+
     @Override
     public String getType(Uri uri) {
         switch (uriMatcher.match(uri)) {
         case UM_SUB_ID:
         case UM_ITEM_ID:
         case UM_PIN_ID:
+        case UM_ICON_KEY:
+        case UM_ITEMS_UNREAD_COUNT:
+        case UM_READ_JOURNAL_FLUSH:
             return CONTENT_TYPE_ITEM;
         case UM_SUBS:
         case UM_SUBS_FOLDER:
         case UM_SUBS_RATE:
         case UM_ITEMS:
+        case UM_ITEMS_SEARCH:
         case UM_PINS:
+        case UM_ICONS:
+        case UM_READ_JOURNAL:
             return CONTENT_TYPE_DIR;
         default:
             throw new IllegalArgumentException("Unknown URI " + uri);
@@ -201,23 +339,17 @@ public class ReaderProvider extends ContentProvider {
 
         String groupBy = null;
         String having = null;
-        String limit = null;
-        if (sortOrder != null) {
-            int limitOff = sortOrder.indexOf(" limit ");
-            if (limitOff != -1) {
-                limit = sortOrder.substring(limitOff + " limit ".length());
-                sortOrder = sortOrder.substring(0, limitOff);
-            }
-        }
+        String limit = sqlLimit(sortOrder);
+        sortOrder = sqlOrderBy(sortOrder);
         switch (uriMatcher.match(uri)) {
         case UM_BEGIN_TXN:
-            db.beginTransaction();
+            beginTxn(db);
             return null;
         case UM_SUCCESS_TXN:
-            db.setTransactionSuccessful();
+            successTxn(db);
             return null;
         case UM_END_TXN:
-            db.endTransaction();
+            endTxn(db);
             return null;
         case UM_SUB_ID:
             if (projection == null) {
@@ -260,15 +392,18 @@ public class ReaderProvider extends ContentProvider {
             groupBy = Subscription._RATE;
             break;
         case UM_ITEM_ID:
-            qb.setTables(Item.TABLE_NAME);
-            qb.appendWhere(Item._ID + " = "
-                + uri.getPathSegments().get(1));
-            break;
         case UM_ITEMS:
-            qb.setTables(Item.TABLE_NAME);
-            // PENDING:
-            //limit = "200";
+            limit = prepareItems(qb, uri, limit);
             break;
+        case UM_ITEMS_UNREAD_COUNT:
+            qb.setTables(Item.UNREAD_COUNTER_TABLE_NAME);
+            if (projection == null) {
+                projection = Item.SELECT_UNREAD_COUNT;
+            }
+            break;
+        case UM_ITEMS_SEARCH:
+            return querySearch(db, uri, projection, selection, selectionArgs,
+                sortOrder, limit);
         case UM_PIN_ID:
             qb.setTables(Pin.TABLE_NAME);
             qb.appendWhere(Pin._ID + " = "
@@ -277,6 +412,11 @@ public class ReaderProvider extends ContentProvider {
         case UM_PINS:
             qb.setTables(Pin.TABLE_NAME);
             break;
+        case UM_ICON_KEY:
+            qb.setTables(Icon.TABLE_NAME);
+            qb.appendWhere(Icon._KEY + " = ");
+            qb.appendWhereEscapeString(uri.getPathSegments().get(1));
+            break;
         default:
             throw new IllegalArgumentException("Unknown URI " + uri);
         }
@@ -287,15 +427,156 @@ public class ReaderProvider extends ContentProvider {
         return c;
     }
 
+    private Cursor querySearch(SQLiteDatabase db, Uri uri, String[] projection,
+            String selection, String[] selectionArgs, String sortOrder,
+            String limit) {
+        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+        limit = prepareItems(qb, uri, limit);
+        if (projection == null) {
+            projection = Item.SEARCH_SELECT;
+        }
+        if (sortOrder == null) {
+            sortOrder = Item.SEARCH_DEFAULT_ORDER;
+        }
+
+        Cursor c = qb.query(db, projection, selection, selectionArgs,
+                null, null, sortOrder, limit);
+        c.setNotificationUri(getContext().getContentResolver(), uri);
+        return new SnippetCursor(c);
+    }
+
+    /**
+     * the sql query() runs for an item, items or item search uri, for
+     * EXPLAIN QUERY PLAN in tests.
+     */
+    static String sqlItemsQuery(Uri uri, String[] projection,
+            String selection, String sortOrder) {
+        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+        String limit = prepareItems(qb, uri, sqlLimit(sortOrder));
+        sortOrder = sqlOrderBy(sortOrder);
+        if (uriMatcher.match(uri) == UM_ITEMS_SEARCH) {
+            if (projection == null) {
+                projection = Item.SEARCH_SELECT;
+            }
+            if (sortOrder == null) {
+                sortOrder = Item.SEARCH_DEFAULT_ORDER;
+            }
+        }
+        return qb.buildQuery(projection, selection, null, null, null,
+            sortOrder, limit);
+    }
+
+    /** the limit of a sortOrder with " limit ", else null */
+    private static String sqlLimit(String sortOrder) {
+        int limitOff = (sortOrder == null) ? -1: sortOrder.indexOf(" limit ");
+        return (limitOff == -1) ? null:
+            sortOrder.substring(limitOff + " limit ".length());
+    }
+
+    /** sortOrder without its " limit " */
+    private static String sqlOrderBy(String sortOrder) {
+        int limitOff = (sortOrder == null) ? -1: sortOrder.indexOf(" limit ");
+        return (limitOff == -1) ? sortOrder: sortOrder.substring(0, limitOff);
+    }
+
+    /**
+     * sets the tables and where of an item, items or item search uri.
+     * Returns the limit to query with.
+     */
+    private static String prepareItems(SQLiteQueryBuilder qb, Uri uri,
+            String limit) {
+        switch (uriMatcher.match(uri)) {
+        case UM_ITEM_ID:
+            qb.setTables(Item.TABLE_NAME);
+            qb.appendWhere(Item._ID + " = "
+                + uri.getPathSegments().get(1));
+            return limit;
+        case UM_ITEMS:
+            qb.setTables(Item.TABLE_NAME);
+            return appendPageWhere(qb, uri, Item._ID, false, limit);
+        case UM_ITEMS_SEARCH:
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+        qb.setTables(Item.TABLE_NAME + " join " + Item.FTS_TABLE_NAME
+            + " on " + Item.TABLE_NAME + "." + Item._ID
+            + " = " + Item.FTS_TABLE_NAME + ".docid");
+        String match = Utils.asFtsQuery(
+            uri.getQueryParameter(Item.SEARCH_PARAM_KEYWORD));
+        if (match == null) {
+            qb.appendWhere("0");
+        } else {
+            qb.appendWhere(Item.FTS_TABLE_NAME + " match ");
+            qb.appendWhereEscapeString(match);
+        }
+        String subId = uri.getQueryParameter(Item.SEARCH_PARAM_SUBSCRIPTION_ID);
+        if (subId != null) {
+            qb.appendWhere(" and " + Item._SUBSCRIPTION_ID + " = "
+                + Long.parseLong(subId));
+        }
+        return appendPageWhere(qb, uri,
+            Item.TABLE_NAME + "." + Item._ID, true, limit);
+    }
+
+    /**
+     * Applies the keyset page parameters of Item.pageUri(), rows are
+     * expected in _id desc order. Returns the limit to query with.
+     */
+    private static String appendPageWhere(SQLiteQueryBuilder qb, Uri uri,
+            String idColumn, boolean hasWhere, String limit) {
+        String beforeId = uri.getQueryParameter(Item.PAGE_PARAM_BEFORE_ID);
+        if (beforeId != null) {
+            if (hasWhere) {
+                qb.appendWhere(" and ");
+            }
+            qb.appendWhere(idColumn + " < " + Long.parseLong(beforeId));
+        }
+        String pageLimit = uri.getQueryParameter(Item.PAGE_PARAM_LIMIT);
+        if (pageLimit != null) {
+            return Integer.toString(Integer.parseInt(pageLimit));
+        }
+        return limit;
+    }
+
+    /**
+     * Returns the snippet column as html, matched terms in bold.
+     */
+    private static class SnippetCursor extends CursorWrapper {
+
+        private final int posSnippet;
+
+        private SnippetCursor(Cursor cursor) {
+            super(cursor);
+            this.posSnippet = cursor.getColumnIndex(Item._SNIPPET);
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            String value = super.getString(columnIndex);
+            if (columnIndex == this.posSnippet) {
+                value = Utils.ftsSnippetAsHtml(value, Item.SNIPPET_START,
+                    Item.SNIPPET_END);
+            }
+            return value;
+        }
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues values) {
         String tableName;
         Uri contentUri;
         switch (uriMatcher.match(uri)) {
+        case UM_ICONS:
+            return insertIcon(values);
+        case UM_READ_JOURNAL:
+            return insertReadJournal(values);
         case UM_SUBS:
             tableName = Subscription.TABLE_NAME;
             contentUri = Subscription.CONTENT_URI;
             values.put(Subscription._DISABLED, 0);
+            // NOTE: unread_count is kept by the item triggers
+            values.put(Subscription._UNREAD_COUNT, 0);
             break;
         case UM_ITEMS:
             tableName = Item.TABLE_NAME;
@@ -310,16 +591,181 @@ public class ReaderProvider extends ContentProvider {
         }
 
         SQLiteDatabase db = openHelper.getWritableDatabase();
-        long rowId = db.insert(tableName, tableName, values);
+        Batch batch = this.currentBatch.get();
+        long rowId;
+        if (batch == null) {
+            db.beginTransaction();
+            try {
+                rowId = db.insert(tableName, tableName, values);
+                if (rowId > 0 && contentUri == Item.CONTENT_URI) {
+                    SQLiteStatement stmt = db.compileStatement(Item.SQL_INSERT_FTS);
+                    try {
+                        insertSearchText(stmt, rowId, values);
+                    } finally {
+                        stmt.close();
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } else {
+            rowId = batch.getInsertHelper(db, tableName).insert(values);
+            if (rowId > 0 && contentUri == Item.CONTENT_URI) {
+                insertSearchText(batch.getFtsInsert(db), rowId, values);
+            }
+        }
         if (rowId > 0) {
             Uri insertedUri = ContentUris.withAppendedId(contentUri, rowId);
-            getContext().getContentResolver().notifyChange(insertedUri, null);
+            notifyChange(contentUri);
+            if (contentUri == Subscription.CONTENT_URI) {
+                if (batch == null) {
+                    this.notifier.subsInserted();
+                } else {
+                    batch.subsInserted = true;
+                }
+            }
             return insertedUri;
         }
 
         throw new SQLException("Failed to insert row into " + uri);
     }
 
+    private static void insertSearchText(SQLiteStatement stmt, long rowId,
+            ContentValues values) {
+        Item.bindSearchText(stmt, rowId, values.getAsString(Item._TITLE),
+            values.getAsString(Item._BODY));
+        stmt.executeInsert();
+    }
+
+    private Uri insertIcon(ContentValues values) {
+        // NOTE: content addressed, an existing key already has the same data
+        SQLiteDatabase db = openHelper.getWritableDatabase();
+        db.insertWithOnConflict(Icon.TABLE_NAME, null, values,
+            SQLiteDatabase.CONFLICT_IGNORE);
+        return Icon.keyUri(values.getAsString(Icon._KEY));
+    }
+
+    private Uri insertReadJournal(ContentValues values) {
+        // NOTE: no notification, the journal is seen through the items
+        SQLiteDatabase db = openHelper.getWritableDatabase();
+        long itemId = values.getAsLong(ReadJournal._ITEM_ID);
+        Batch batch = this.currentBatch.get();
+        SQLiteStatement stmt = (batch == null)
+            ? db.compileStatement(ReadJournal.SQL_INSERT):
+            batch.getJournalInsert(db);
+        try {
+            stmt.bindLong(1, itemId);
+            stmt.bindLong(2, values.getAsInteger(ReadJournal._UNREAD));
+            stmt.executeInsert();
+        } finally {
+            if (batch == null) {
+                stmt.close();
+            }
+        }
+        return ContentUris.withAppendedId(ReadJournal.CONTENT_URI, itemId);
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        SQLiteDatabase db = this.openHelper.getWritableDatabase();
+        boolean outer = beginBatch(db);
+        boolean success = false;
+        try {
+            for (ContentValues v: values) {
+                insert(uri, v);
+            }
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            endBatch(db, outer, success);
+        }
+        return values.length;
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(
+            ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = this.openHelper.getWritableDatabase();
+        boolean outer = beginBatch(db);
+        boolean success = false;
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            success = true;
+            return results;
+        } finally {
+            endBatch(db, outer, success);
+        }
+    }
+
+    private boolean beginBatch(SQLiteDatabase db) {
+        db.beginTransaction();
+        if (this.currentBatch.get() != null) {
+            return false;
+        }
+        this.currentBatch.set(new Batch());
+        return true;
+    }
+
+    private void endBatch(SQLiteDatabase db, boolean outer, boolean success) {
+        if (!outer) {
+            db.endTransaction();
+            return;
+        }
+        Batch batch = this.currentBatch.get();
+        this.currentBatch.remove();
+        try {
+            batch.close();
+        } finally {
+            db.endTransaction();
+        }
+        if (success) {
+            for (Uri notifyUri: batch.notifyUris) {
+                this.notifier.notifyChange(notifyUri);
+            }
+            if (batch.subsInserted) {
+                this.notifier.subsInserted();
+            }
+        }
+    }
+
+    private void beginTxn(SQLiteDatabase db) {
+        boolean outer = beginBatch(db);
+        Batch batch = this.currentBatch.get();
+        batch.txnOwned |= outer;
+        batch.txnDepth++;
+    }
+
+    private void successTxn(SQLiteDatabase db) {
+        db.setTransactionSuccessful();
+        Batch batch = this.currentBatch.get();
+        if (batch != null && batch.txnDepth == 1) {
+            batch.txnSuccess = true;
+        }
+    }
+
+    private void endTxn(SQLiteDatabase db) {
+        Batch batch = this.currentBatch.get();
+        if (batch == null || batch.txnDepth == 0) {
+            db.endTransaction();
+            return;
+        }
+        batch.txnDepth--;
+        endBatch(db, batch.txnOwned && batch.txnDepth == 0, batch.txnSuccess);
+    }
+
+    /** notifies the table, or collects it until the batch commits */
+    private void notifyChange(Uri contentUri) {
+        Batch batch = this.currentBatch.get();
+        if (batch == null) {
+            this.notifier.notifyChange(contentUri);
+        } else {
+            batch.notifyUris.add(contentUri);
+        }
+    }
+
     @Override
     public int delete(Uri uri, String where, String[] whereArgs) {
         return update(uri, null, where, whereArgs, false);
@@ -328,34 +774,102 @@ public class ReaderProvider extends ContentProvider {
     @Override
     public int update(Uri uri, ContentValues values, String where,
             String[] whereArgs) {
+        switch (uriMatcher.match(uri)) {
+        case UM_READ_JOURNAL:
+            return journalItems(values, where, whereArgs);
+        case UM_READ_JOURNAL_FLUSH:
+            return flushReadJournal();
+        }
         return update(uri, values, where, whereArgs, true);
     }
 
+    /** journals the unread value for the items matching where */
+    private int journalItems(ContentValues values, String where,
+            String[] whereArgs) {
+        SQLiteDatabase db = this.openHelper.getWritableDatabase();
+        boolean unread = (values.getAsInteger(ReadJournal._UNREAD) == 1);
+        db.beginTransaction();
+        try {
+            db.execSQL(ReadJournal.sqlJournalWhere(where, unread),
+                (whereArgs == null) ? new Object[0]: whereArgs);
+            int count = changes(db);
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * applies the read journal to the item rows and clears it, the
+     * unread counters follow by the item triggers.
+     */
+    private int flushReadJournal() {
+        SQLiteDatabase db = this.openHelper.getWritableDatabase();
+        int count;
+        db.beginTransaction();
+        try {
+            SQLiteStatement apply = db.compileStatement(ReadJournal.SQL_APPLY);
+            try {
+                apply.execute();
+            } finally {
+                apply.close();
+            }
+            count = changes(db);
+            db.execSQL(ReadJournal.SQL_CLEAR);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (count > 0) {
+            notifyChange(Item.CONTENT_URI);
+            notifyChange(Subscription.CONTENT_URI);
+        }
+        return count;
+    }
+
+    /** rows changed by the last statement, not counting trigger rows */
+    private static int changes(SQLiteDatabase db) {
+        SQLiteStatement stmt = db.compileStatement("select changes()");
+        try {
+            return (int) stmt.simpleQueryForLong();
+        } finally {
+            stmt.close();
+        }
+    }
+
     private int update(Uri uri, ContentValues values, String where,
             String[] whereArgs, boolean update) {
         SQLiteDatabase db = this.openHelper.getWritableDatabase();
         String tableName;
+        Uri contentUri;
         switch (uriMatcher.match(uri)) {
         case UM_SUB_ID:
             tableName = Subscription.TABLE_NAME;
+            contentUri = Subscription.CONTENT_URI;
             where = sqlIdWhere(uri.getPathSegments().get(1), where);
             break;
         case UM_SUBS:
             tableName = Subscription.TABLE_NAME;
+            contentUri = Subscription.CONTENT_URI;
             break;
         case UM_ITEM_ID:
             tableName = Item.TABLE_NAME;
+            contentUri = Item.CONTENT_URI;
             where = sqlIdWhere(uri.getPathSegments().get(1), where);
             break;
         case UM_ITEMS:
             tableName = Item.TABLE_NAME;
+            contentUri = Item.CONTENT_URI;
             break;
         case UM_PIN_ID:
             tableName = Pin.TABLE_NAME;
+            contentUri = Pin.CONTENT_URI;
             where = sqlIdWhere(uri.getPathSegments().get(1), where);
             break;
         case UM_PINS:
             tableName = Pin.TABLE_NAME;
+            contentUri = Pin.CONTENT_URI;
             break;
         default:
             throw new IllegalArgumentException("Unknown URI " + uri);
@@ -363,7 +877,16 @@ public class ReaderProvider extends ContentProvider {
 
         int count = update ? db.update(tableName, values, where, whereArgs):
             db.delete(tableName, where, whereArgs);
-        getContext().getContentResolver().notifyChange(uri, null);
+        if (update && contentUri == Subscription.CONTENT_URI
+                && values.containsKey(Subscription._ICON_KEY)) {
+            IconCache icons = IconCache.getInstance(getContext());
+            if (uriMatcher.match(uri) == UM_SUB_ID) {
+                icons.invalidate(Long.parseLong(uri.getPathSegments().get(1)));
+            } else {
+                icons.clear();
+            }
+        }
+        notifyChange(contentUri);
         return count;
     }
 }
@@ -22,6 +22,11 @@ public class ReaderService extends Service {
         = "org.jarx.android.livedoor.reader.action.SYNC_SUBS_FINISHED";
     public static final String ACTION_UNREAD_MODIFIED
         = "org.jarx.android.livedoor.reader.action.UNREAD_MODIFIED";
+    /** items of subscriptions stored, with EXTRA_SUB_IDS and EXTRA_SYNC_COUNT */
+    public static final String ACTION_SYNC_SUB_FINISHED
+        = "org.jarx.android.livedoor.reader.action.SYNC_SUB_FINISHED";
+    public static final String EXTRA_SUB_IDS = "subIds";
+    public static final String EXTRA_SYNC_COUNT = "syncCount";
 
     private static final String TAG = "ReaderService";
     private static final long RMAN_INTERVAL = 30 * 60 * 1000;
@@ -43,6 +48,7 @@ public class ReaderService extends Service {
     private Timer timer;
     private boolean syncRunning;
     private boolean started;
+    private boolean destroyed;
     private MessageFormat syncFinishedFormat;
 
     @Override
@@ -53,22 +59,15 @@ public class ReaderService extends Service {
         this.syncFinishedFormat = new MessageFormat(
             getText(R.string.msg_sync_finished).toString());
 
-        Context c = getApplicationContext();
-        long interval = ReaderPreferences.getSyncInterval(c);
-        if (interval > 0) {
-            long delay = 0;
-            long lastSyncTime = ReaderPreferences.getLastSyncTime(c);
-            if (lastSyncTime > 0) {
-                long now = System.currentTimeMillis();
-                delay = Math.max((lastSyncTime + interval) - now, 0);
-            }
-            startSyncTimer(delay, interval);
-        }
+        scheduleNextSync();
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
+        synchronized (this) {
+            this.destroyed = true;
+        }
         cancelSyncTimer();
     }
 
@@ -112,11 +111,16 @@ public class ReaderService extends Service {
     }
 
     public boolean startSync() {
-        long interval = ReaderPreferences.getSyncInterval(getApplicationContext());
-        return startSyncTimer(0, interval);
+        return startSyncTimer(0, true);
     }
 
-    public synchronized boolean startSyncTimer(long delay, long interval) {
+    /**
+     * schedules one sync after delay. a full sync reads /api/subs, else
+     * only the subscriptions predicted to have changed are item-synced,
+     * unless a full sync is due anyway. the next sync is scheduled when
+     * this one finishes.
+     */
+    public synchronized boolean startSyncTimer(long delay, final boolean full) {
         if (this.syncRunning) {
             return false;
         }
@@ -131,12 +135,23 @@ public class ReaderService extends Service {
                 ReaderManager rm = ReaderManager.newInstance(context);
                 ReaderService.this.setSyncRunning(true);
                 try {
-                    if (rm.login()) {
+                    boolean fullSync = (full || SyncSchedule.isFullSyncDue(context));
+                    if (fullSync) {
+                        // NOTE: before login, a failed sync waits as well
                         ReaderPreferences.setLastSyncTime(
                             context, System.currentTimeMillis());
-                        ReaderService.this.notifySyncStarted();
-                        int syncCount = rm.sync();
-                        ReaderService.this.notifySyncFinished(syncCount);
+                    }
+                    if (rm.login()) {
+                        if (fullSync) {
+                            ReaderService.this.notifySyncStarted();
+                            int syncCount = rm.sync();
+                            ReaderService.this.notifySyncFinished(syncCount);
+                        } else {
+                            int syncCount = rm.syncPredicted();
+                            if (syncCount > 0) {
+                                ReaderService.this.notifySyncFinished(syncCount);
+                            }
+                        }
                         rm.logout();
                     }
                 } catch (IOException e) {
@@ -147,17 +162,24 @@ public class ReaderService extends Service {
                     ReaderService.this.notifySyncError(e);
                 } finally {
                     ReaderService.this.setSyncRunning(false);
+                    ReaderService.this.scheduleNextSync();
                 }
             }
         };
-        if (interval == 0) {
-            this.timer.schedule(timerTask, delay);
-        } else {
-            this.timer.schedule(timerTask, delay, interval);
-        }
+        this.timer.schedule(timerTask, delay);
         return true;
     }
 
+    private synchronized void scheduleNextSync() {
+        if (this.destroyed) {
+            return;
+        }
+        long next = SyncSchedule.nextSyncTime(getApplicationContext());
+        if (next > 0) {
+            startSyncTimer(Math.max(next - System.currentTimeMillis(), 0), false);
+        }
+    }
+
     public synchronized void cancelSyncTimer() {
         if (this.timer != null) {
             this.timer.cancel();
@@ -12,7 +12,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.database.Cursor;
-import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
@@ -68,6 +67,7 @@ public class SubListActivity extends ListActivity
 
         IntentFilter filter = new IntentFilter();
         filter.addAction(ReaderService.ACTION_SYNC_SUBS_FINISHED);
+        filter.addAction(ReaderService.ACTION_SYNC_SUB_FINISHED);
         filter.addAction(ReaderService.ACTION_UNREAD_MODIFIED);
         registerReceiver(this.refreshReceiver, filter);
 
@@ -206,12 +206,8 @@ public class SubListActivity extends ListActivity
             Subscription sub = subCursor.getSubscription();
             titleView.setText(sub.getTitle() + " (" + sub.getUnreadCount() + ")");
             ratingBar.setRating(sub.getRate());
-            Bitmap icon = sub.getIcon(SubListActivity.this);
-            if (icon == null) {
-                iconView.setImageResource(R.drawable.item_read);
-            } else {
-                iconView.setImageBitmap(icon);
-            }
+            IconCache.getInstance(SubListActivity.this).bind(iconView, sub.getId(),
+                R.drawable.item_read);
 
             StringBuilder buff = new StringBuilder(64);
             buff.append(sub.getSubscribersCount());
@@ -130,16 +130,8 @@ public class SubListActivityHelper extends ActivityHelper {
         dialog.show();
         new Thread() {
             public void run() {
-                ContentResolver cr = activity.getContentResolver();
-                ContentValues values = new ContentValues();
-
-                values.put(Item._UNREAD, 0);
-                cr.update(Item.CONTENT_URI, values, Item._UNREAD + " = 1", null);
-
-                values.clear();
-                values.put(Subscription._UNREAD_COUNT, 0);
-                cr.update(Subscription.CONTENT_URI, values,
-                    Subscription._UNREAD_COUNT + " <> 0", null);
+                ReadJournal.getInstance(activity).markRead(
+                    ReadJournal.SQL_UNREAD_WHERE, null);
 
                 listable.getHandler().post(new Runnable() {
                     public void run() {
@@ -168,9 +160,6 @@ public class SubListActivityHelper extends ActivityHelper {
                 ContentResolver cr = activity.getContentResolver();
                 cr.delete(Item.CONTENT_URI, where, null);
                 if (all) {
-                    ContentValues values = new ContentValues();
-                    values.put(Subscription._UNREAD_COUNT, 0);
-                    cr.update(Subscription.CONTENT_URI, values, null, null);
                     context.sendBroadcast(
                         new Intent(ReaderService.ACTION_UNREAD_MODIFIED));
                 }
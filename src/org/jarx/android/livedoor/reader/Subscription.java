@@ -3,8 +3,6 @@ package org.jarx.android.livedoor.reader;
 import java.io.Serializable;
 import java.util.Comparator;
 import java.util.ArrayList;
-import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.CursorWrapper;
@@ -30,6 +28,7 @@ public final class Subscription implements Serializable, BaseColumns {
     public static final String _URI = "uri";
     public static final String _TITLE = "title";
     public static final String _ICON_URI = "icon_uri";
+    // NOTE: database version 7 or earlier, moved to the icon table
     public static final String _ICON = "icon";
     public static final String _RATE = "rate";
     public static final String _SUBSCRIBERS_COUNT = "subscribers_count";
@@ -42,13 +41,31 @@ public final class Subscription implements Serializable, BaseColumns {
     public static final String _READ_ITEM_ID = "read_item_id";
     // NOTE: database version 7 or later
     public static final String _LAST_ITEM_ID = "last_item_id";
+    // NOTE: database version 8 or later
+    public static final String _ICON_KEY = "icon_key";
+    // NOTE: database version 13 or later
+    public static final String _RETENTION_MAX_ITEMS = "retention_max_items";
+    // NOTE: database version 14 or later
+    public static final String _OFFLINE_IMAGES = "offline_images";
+    // NOTE: database version 16 or later, seconds
+    public static final String _CHANGE_INTERVAL = "change_interval";
+    public static final String _CHECK_TIME = "check_time";
+    // NOTE: database version 17 or later, the unread_count of /api/subs
+    public static final String _SERVER_UNREAD_COUNT = "server_unread_count";
+
+    public static final int RETENTION_DEFAULT = -1;
+    public static final int RETENTION_UNLIMITED = 0;
 
     public static final String[] DEFAULT_SELECT = {
         _ID, _URI, _TITLE, _RATE, _SUBSCRIBERS_COUNT, _UNREAD_COUNT,
         _FOLDER, _MODIFIED_TIME, _ITEM_SYNC_TIME, _DISABLED,
-        _READ_ITEM_ID, _LAST_ITEM_ID
+        _READ_ITEM_ID, _LAST_ITEM_ID, _RETENTION_MAX_ITEMS, _OFFLINE_IMAGES
+    };
+    public static final String[] SELECT_ICON_KEY = {_ICON_KEY};
+    public static final String[] SELECT_FINGERPRINT = {
+        _ID, _URI, _TITLE, _ICON_URI, _RATE, _SUBSCRIBERS_COUNT,
+        _FOLDER, _MODIFIED_TIME, _CHANGE_INTERVAL, _SERVER_UNREAD_COUNT
     };
-    public static final String[] SELECT_ICON = {_ICON};
 
     public static final int GROUP_FOLDER = 1;
     public static final int GROUP_RATE = 2;
@@ -59,7 +76,7 @@ public final class Subscription implements Serializable, BaseColumns {
         + _URI + " text,"
         + _TITLE + " text,"
         + _ICON_URI + " text,"
-        + _ICON + " blob,"
+        + _ICON_KEY + " text,"
         + _RATE + " integer,"
         + _SUBSCRIBERS_COUNT + " integer,"
         + _UNREAD_COUNT + " integer,"
@@ -68,16 +85,19 @@ public final class Subscription implements Serializable, BaseColumns {
         + _ITEM_SYNC_TIME + " integer default 0,"
         + _DISABLED + " integer default 0,"
         + _READ_ITEM_ID + " integer,"
-        + _LAST_ITEM_ID + " integer"
+        + _LAST_ITEM_ID + " integer,"
+        + _RETENTION_MAX_ITEMS + " integer,"
+        + _OFFLINE_IMAGES + " integer default 0,"
+        + _CHANGE_INTERVAL + " integer,"
+        + _CHECK_TIME + " integer default 0,"
+        + _SERVER_UNREAD_COUNT + " integer default 0"
         + ")";
 
+    // NOTE: a few hundred rows are sorted faster than the indexes are
+    // kept, unread_count is written by the item triggers
     public static final String[] INDEX_COLUMNS = {
         _RATE,
-        _SUBSCRIBERS_COUNT,
-        _UNREAD_COUNT,
         _FOLDER,
-        _MODIFIED_TIME,
-        _ITEM_SYNC_TIME,
         _DISABLED
     };
 
@@ -116,6 +136,35 @@ public final class Subscription implements Serializable, BaseColumns {
             // PENDING: sqlite3 not supported.
             // alter table subscription *modify* disabled integer default 0
         }
+        if (oldVersion < 8) {
+            sqls.add("alter table " + TABLE_NAME
+                + " add " + _ICON_KEY + " text");
+        }
+        if (oldVersion < 12) {
+            sqls.add(ReaderProvider.sqlDropIndex(TABLE_NAME, _SUBSCRIBERS_COUNT));
+            sqls.add(ReaderProvider.sqlDropIndex(TABLE_NAME, _UNREAD_COUNT));
+            sqls.add(ReaderProvider.sqlDropIndex(TABLE_NAME, _MODIFIED_TIME));
+            sqls.add(ReaderProvider.sqlDropIndex(TABLE_NAME, _ITEM_SYNC_TIME));
+            sqls.add("drop index if exists idx_subscription_uc_d");
+        }
+        if (oldVersion < 13) {
+            sqls.add("alter table " + TABLE_NAME
+                + " add " + _RETENTION_MAX_ITEMS + " integer");
+        }
+        if (oldVersion < 14) {
+            sqls.add("alter table " + TABLE_NAME
+                + " add " + _OFFLINE_IMAGES + " integer default 0");
+        }
+        if (oldVersion < 16) {
+            sqls.add("alter table " + TABLE_NAME
+                + " add " + _CHANGE_INTERVAL + " integer");
+            sqls.add("alter table " + TABLE_NAME
+                + " add " + _CHECK_TIME + " integer default 0");
+        }
+        if (oldVersion < 17) {
+            sqls.add("alter table " + TABLE_NAME
+                + " add " + _SERVER_UNREAD_COUNT + " integer default 0");
+        }
         return sqls.toArray(new String[sqls.size()]);
     }
 
@@ -133,6 +182,8 @@ public final class Subscription implements Serializable, BaseColumns {
     private boolean disabled;
     private long readItemId;
     private long lastItemId;
+    private int retentionMaxItems = RETENTION_DEFAULT;
+    private boolean offlineImages;
 
     public Subscription() {
     }
@@ -170,20 +221,15 @@ public final class Subscription implements Serializable, BaseColumns {
     }
 
     public Bitmap getIcon(Context context) {
-        ContentResolver cr = context.getContentResolver();
-        Uri uri = ContentUris.withAppendedId(CONTENT_URI, this.getId());
-        Cursor cursor = cr.query(uri, SELECT_ICON, null, null, null);
         try {
-            cursor.moveToFirst();
-            byte[] data = cursor.getBlob(0);
+            byte[] data = Icon.loadData(context.getContentResolver(),
+                this.getId());
             if (data != null) {
                 return BitmapFactory.decodeByteArray(
                     data, 0, data.length);
             }
         } catch (OutOfMemoryError e) {
             // NOTE: ignore, display no icon
-        } finally {
-            cursor.close();
         }
         return null;
     }
@@ -260,6 +306,22 @@ public final class Subscription implements Serializable, BaseColumns {
         this.lastItemId = lastItemId;
     }
 
+    public int getRetentionMaxItems() {
+        return this.retentionMaxItems;
+    }
+
+    public void setRetentionMaxItems(int retentionMaxItems) {
+        this.retentionMaxItems = retentionMaxItems;
+    }
+
+    public boolean isOfflineImages() {
+        return this.offlineImages;
+    }
+
+    public void setOfflineImages(boolean offlineImages) {
+        this.offlineImages = offlineImages;
+    }
+
     public boolean equals(Object o) {
         if (o == this) {
             return true;
@@ -290,6 +352,8 @@ public final class Subscription implements Serializable, BaseColumns {
         private final int posDisabled;
         private final int posReadItemId;
         private final int posLastItemId;
+        private final int posRetentionMaxItems;
+        private final int posOfflineImages;
 
         public FilterCursor(Cursor cursor) {
             this(cursor, null);
@@ -310,6 +374,9 @@ public final class Subscription implements Serializable, BaseColumns {
             this.posDisabled = getColumnIndex(Subscription._DISABLED);
             this.posReadItemId = getColumnIndex(Subscription._READ_ITEM_ID);
             this.posLastItemId = getColumnIndex(Subscription._LAST_ITEM_ID);
+            this.posRetentionMaxItems
+                = getColumnIndex(Subscription._RETENTION_MAX_ITEMS);
+            this.posOfflineImages = getColumnIndex(Subscription._OFFLINE_IMAGES);
         }
 
         public Subscription getSubscription() {
@@ -326,6 +393,9 @@ public final class Subscription implements Serializable, BaseColumns {
             sub.setDisabled(getInt(this.posDisabled) == 1);
             sub.setReadItemId(getLong(this.posReadItemId));
             sub.setLastItemId(getLong(this.posLastItemId));
+            sub.setRetentionMaxItems(isNull(this.posRetentionMaxItems)
+                ? RETENTION_DEFAULT: getInt(this.posRetentionMaxItems));
+            sub.setOfflineImages(getInt(this.posOfflineImages) == 1);
             return sub;
         }
     }
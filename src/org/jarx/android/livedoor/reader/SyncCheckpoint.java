@@ -0,0 +1,163 @@
+package org.jarx.android.livedoor.reader;
+
+import java.io.IOException;
+import org.json.simple.parser.ParseException;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Progress of a running ReaderManager.sync(), kept in the preferences so
+ * that a sync that died half way resumes where it stopped.
+ *
+ * The subs phase records the /api/subs offset after each page, with the
+ * offset and a fingerprint of the ids and modified_on values of the last
+ * page read. A resume of the subs phase reads that page again and starts
+ * over if it changed: a subscription added or removed before it shifts
+ * the offsets. The items phase resumes as is, a subscription is
+ * item-synced once its item_sync_time equals its modified_time.
+ */
+final class SyncCheckpoint {
+
+    static final int PHASE_NONE = 0;
+    static final int PHASE_SUBS = 1;
+    static final int PHASE_ITEMS = 2;
+
+    private static final String KEY_PHASE = "sync_checkpoint_phase";
+    private static final String KEY_UNREAD_ONLY = "sync_checkpoint_unread_only";
+    private static final String KEY_TIME = "sync_checkpoint_time";
+    private static final String KEY_SUBS_OFFSET = "sync_checkpoint_subs_offset";
+    private static final String KEY_LAST_PAGE_OFFSET
+        = "sync_checkpoint_last_page_offset";
+    private static final String KEY_LAST_PAGE = "sync_checkpoint_last_page";
+    private static final long MAX_AGE = 6 * 60 * 60 * 1000;
+
+    static SyncCheckpoint load(Context context) {
+        SyncCheckpoint checkpoint = new SyncCheckpoint(context);
+        SharedPreferences sp = ReaderPreferences.getPreferences(context);
+        checkpoint.phase = sp.getInt(KEY_PHASE, PHASE_NONE);
+        checkpoint.unreadOnly = sp.getBoolean(KEY_UNREAD_ONLY, false);
+        checkpoint.time = sp.getLong(KEY_TIME, 0);
+        checkpoint.subsOffset = sp.getInt(KEY_SUBS_OFFSET, 0);
+        checkpoint.lastPageOffset = sp.getInt(KEY_LAST_PAGE_OFFSET, -1);
+        checkpoint.lastPage = sp.getLong(KEY_LAST_PAGE, 0);
+        return checkpoint;
+    }
+
+    private final Context context;
+    private int phase;
+    private boolean unreadOnly;
+    private long time;
+    private int subsOffset;
+    // NOTE: -1 before the first subs page
+    private int lastPageOffset = -1;
+    private long lastPage;
+
+    private SyncCheckpoint(Context context) {
+        this.context = context;
+    }
+
+    int getPhase() {
+        return this.phase;
+    }
+
+    int getSubsOffset() {
+        return this.subsOffset;
+    }
+
+    /** a checkpoint of an interrupted sync of the same kind, not too old */
+    boolean isResumable(boolean unreadOnly) {
+        long age = System.currentTimeMillis() - this.time;
+        return (this.phase != PHASE_NONE && this.unreadOnly == unreadOnly
+            && age >= 0 && age < MAX_AGE);
+    }
+
+    /**
+     * returns false if the subs pages read shifted on the server, by the
+     * last page read again. the items phase is not checked.
+     */
+    boolean verify(ApiClient client, int limit)
+            throws IOException, ReaderException {
+        if (this.phase != PHASE_SUBS || this.lastPageOffset < 0) {
+            return true;
+        }
+        return fetchFingerprint(client, this.lastPageOffset, limit)
+            == this.lastPage;
+    }
+
+    private long fetchFingerprint(ApiClient client, int offset, int limit)
+            throws IOException, ReaderException {
+        PageFingerprint page = new PageFingerprint();
+        try {
+            client.decodeSubs(this.unreadOnly, offset, limit, page);
+        } catch (ParseException e) {
+            throw new ReaderException("json parse error", e);
+        }
+        return page.getValue();
+    }
+
+    void start(boolean unreadOnly) {
+        this.phase = PHASE_SUBS;
+        this.unreadOnly = unreadOnly;
+        this.time = System.currentTimeMillis();
+        this.subsOffset = 0;
+        this.lastPageOffset = -1;
+        this.lastPage = 0;
+        save();
+    }
+
+    /** records the next subs page, whose rows are written */
+    void subsPage(int offset, int count, long fingerprint) {
+        this.lastPageOffset = offset;
+        this.lastPage = fingerprint;
+        this.subsOffset = offset + count;
+        save();
+    }
+
+    void itemsStarted() {
+        this.phase = PHASE_ITEMS;
+        save();
+    }
+
+    void finish() {
+        this.phase = PHASE_NONE;
+        save();
+    }
+
+    private void save() {
+        SharedPreferences.Editor editor
+            = ReaderPreferences.getPreferences(this.context).edit();
+        editor.putInt(KEY_PHASE, this.phase);
+        editor.putBoolean(KEY_UNREAD_ONLY, this.unreadOnly);
+        editor.putLong(KEY_TIME, this.time);
+        editor.putInt(KEY_SUBS_OFFSET, this.subsOffset);
+        editor.putInt(KEY_LAST_PAGE_OFFSET, this.lastPageOffset);
+        editor.putLong(KEY_LAST_PAGE, this.lastPage);
+        editor.commit();
+    }
+
+    /** FNV-1a of the ids and modified_on values of a subs page */
+    static class PageFingerprint implements ApiDecoder.SubscriptionHandler {
+
+        private long value = 0xcbf29ce484222325L;
+
+        public boolean subscription(Subscription sub) {
+            add(sub.getId());
+            add(sub.getModifiedTime());
+            return true;
+        }
+
+        long getValue() {
+            return this.value;
+        }
+
+        void reset() {
+            this.value = 0xcbf29ce484222325L;
+        }
+
+        private void add(long v) {
+            for (int i = 0; i < 64; i += 16) {
+                this.value = (this.value ^ ((v >>> i) & 0xffff)) * 0x100000001b3L;
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.jarx.android.livedoor.reader;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+
+/**
+ * When ReaderService syncs next.
+ *
+ * Each subscription keeps change_interval, a moving average of the
+ * seconds between the modified_on values seen by full syncs. A feed is
+ * predicted to have changed one interval after its last change or its
+ * last check, whichever is later. Between the full syncs of the sync
+ * interval preference only the predicted feeds are item-synced.
+ *
+ * The last sync time is the start of the last full sync attempt, failed
+ * or not. Two attempts are at least MIN_DELAY apart.
+ */
+final class SyncSchedule {
+
+    /** the shortest wait between two scheduled syncs */
+    static final long MIN_DELAY = 10 * 60 * 1000;
+
+    private static final String SQL_NEXT_CHANGE
+        = "max(" + Subscription._MODIFIED_TIME + ", " + Subscription._CHECK_TIME
+        + ") + " + Subscription._CHANGE_INTERVAL;
+    private static final String SQL_HAS_INTERVAL
+        = Subscription._CHANGE_INTERVAL + " > 0";
+
+    private SyncSchedule() {
+    }
+
+    /** subscriptions predicted to have changed by now, in seconds */
+    static String sqlPredictedWhere(long now) {
+        return SQL_HAS_INTERVAL + " and " + SQL_NEXT_CHANGE + " <= " + now;
+    }
+
+    static boolean isFullSyncDue(Context context) {
+        long interval = ReaderPreferences.getSyncInterval(context);
+        long last = ReaderPreferences.getLastSyncTime(context);
+        if (last + interval <= System.currentTimeMillis()) {
+            return true;
+        }
+        // NOTE: an interrupted full sync resumes before anything else
+        return SyncCheckpoint.load(context).isResumable(
+            ReaderPreferences.isSyncUnreadOnly(context));
+    }
+
+    /** the earliest predicted change of any subscription, 0 if none */
+    static long nextPredictedTime(Context context) {
+        ContentResolver cr = context.getContentResolver();
+        Cursor cursor = cr.query(Subscription.CONTENT_URI,
+            new String[]{"min(" + SQL_NEXT_CHANGE + ")"},
+            SQL_HAS_INTERVAL, null, null);
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0) * 1000;
+            }
+            return 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * the time of the next sync, full or predicted, or 0 if automatic
+     * sync is off.
+     */
+    static long nextSyncTime(Context context) {
+        long interval = ReaderPreferences.getSyncInterval(context);
+        if (interval <= 0) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        long last = ReaderPreferences.getLastSyncTime(context);
+        long full = last + interval;
+        if (isFullSyncDue(context)) {
+            // NOTE: a failed attempt is not retried at once
+            full = Math.max(last + MIN_DELAY, now);
+        }
+        long predicted = nextPredictedTime(context);
+        if (predicted > 0) {
+            predicted = Math.max(predicted, now + MIN_DELAY);
+            if (predicted < full) {
+                return predicted;
+            }
+        }
+        return full;
+    }
+}
@@ -2,6 +2,7 @@ package org.jarx.android.livedoor.reader;
 
 import java.text.DateFormat;
 import java.util.Date;
+import java.util.HashMap;
 
 public class Utils {
 
@@ -57,38 +58,458 @@ public class Utils {
         if (value == null || value.length() == 0) {
             return value;
         }
-        return value.replaceAll("[\\s\u3000]+", " ").trim();
+        int len = value.length();
+        PlainTextBuilder buff = new PlainTextBuilder(len, true);
+        for (int i = 0; i < len; i++) {
+            buff.append(value.charAt(i));
+        }
+        return buff.toString();
     }
 
     public static String htmlAsPlainText(String value) {
+        return htmlAsPlainText(value, false, Integer.MAX_VALUE);
+    }
+
+    /**
+     * plain text of html in one line, whitespaces collapsed and trimmed.
+     * stops after maxLength chars, the same as
+     * stripWhitespaces(htmlAsPlainText(value)) cut at maxLength.
+     */
+    public static String htmlAsPlainLine(String value, int maxLength) {
+        return htmlAsPlainText(value, true, maxLength);
+    }
+
+    /**
+     * tags become spaces (br a newline unless oneLine), entities are
+     * decoded and whitespaces collapsed in a single pass.
+     */
+    private static String htmlAsPlainText(String value, boolean oneLine,
+            int maxLength) {
         if (value == null || value.length() == 0) {
             return value;
         }
-        value = value.replaceAll("\\s+", " ");
-        value = value.replaceAll("<br\\s?/?>", "\n");
-        value = value.replaceAll("<.*?>", " ");
-
-        // NOTE: some html entities
-        value = value.replaceAll("&lt;", "<");
-        value = value.replaceAll("&gt;", ">");
-        value = value.replaceAll("&quot;", "\"");
-        value = value.replaceAll("&apos;", "\'");
-        value = value.replaceAll("&nbsp;", " ");
-        value = value.replaceAll("&amp;", "&");
-
-        value = value.replaceAll("  +", " ");
-        return value;
+        int len = value.length();
+        PlainTextBuilder buff = new PlainTextBuilder(
+            Math.min(len, maxLength), oneLine);
+        int i = 0;
+        while (i < len && buff.length() < maxLength) {
+            char c = value.charAt(i);
+            if (c == '<' && isTagStart(value, i + 1)) {
+                int end = value.indexOf('>', i + 1);
+                if (end != -1) {
+                    if (isBrTag(value, i + 1, end)) {
+                        buff.newline();
+                    } else {
+                        buff.append(' ');
+                    }
+                    i = end + 1;
+                    continue;
+                }
+            } else if (c == '&') {
+                int end = entityEnd(value, i);
+                if (end != -1) {
+                    int codePoint = decodeEntity(value, i + 1, end);
+                    if (codePoint != -1) {
+                        buff.append(codePoint);
+                        i = end + 1;
+                        continue;
+                    }
+                }
+            }
+            buff.append(c);
+            i++;
+        }
+        return buff.toString(maxLength);
     }
 
     public static String htmlEscape(String value) {
         if (value == null || value.length() == 0) {
             return value;
         }
-        value = value.replaceAll("&", "&amp;");
-        value = value.replaceAll("<", "&lt;");
-        value = value.replaceAll(">", "&gt;");
-        value = value.replaceAll("\"", "&quot;");
-        return value;
+        int len = value.length();
+        StringBuilder buff = null;
+        int start = 0;
+        for (int i = 0; i < len; i++) {
+            String escaped;
+            switch (value.charAt(i)) {
+            case '&':
+                escaped = "&amp;";
+                break;
+            case '<':
+                escaped = "&lt;";
+                break;
+            case '>':
+                escaped = "&gt;";
+                break;
+            case '"':
+                escaped = "&quot;";
+                break;
+            default:
+                continue;
+            }
+            if (buff == null) {
+                buff = new StringBuilder(len + 16);
+            }
+            buff.append(value, start, i).append(escaped);
+            start = i + 1;
+        }
+        if (buff == null) {
+            return value;
+        }
+        buff.append(value, start, len);
+        return new String(buff);
+    }
+
+    /**
+     * text for the fts3 simple tokenizer, which does not split CJK text
+     * into words. every CJK character and non ascii symbol becomes a
+     * token of its own, so a phrase query of them matches any substring.
+     */
+    public static String asFtsText(String value) {
+        if (value == null || value.length() == 0) {
+            return value;
+        }
+        int len = value.length();
+        StringBuilder buff = new StringBuilder(len + len / 2);
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            if (isFtsSingleChar(c)) {
+                buff.append(' ').append(c).append(' ');
+            } else if (c < 0x80 || Character.isLetterOrDigit(c)) {
+                buff.append(c);
+            } else {
+                buff.append(' ');
+            }
+        }
+        return new String(buff);
+    }
+
+    /**
+     * fts3 match expression for a search keyword, every word is
+     * required. ascii words match as prefix, CJK runs as phrase.
+     * returns null if the keyword has no searchable word.
+     */
+    public static String asFtsQuery(String keyword) {
+        if (keyword == null) {
+            return null;
+        }
+        int len = keyword.length();
+        StringBuilder buff = new StringBuilder(len * 3);
+        int i = 0;
+        while (i < len) {
+            char c = keyword.charAt(i);
+            int end = i + 1;
+            if (isCjk(c)) {
+                while (end < len && isCjk(keyword.charAt(end))) {
+                    end++;
+                }
+                if (buff.length() > 0) {
+                    buff.append(' ');
+                }
+                buff.append('"');
+                for (int j = i; j < end; j++) {
+                    if (j > i) {
+                        buff.append(' ');
+                    }
+                    buff.append(keyword.charAt(j));
+                }
+                buff.append('"');
+            } else if (Character.isLetterOrDigit(c)) {
+                while (end < len && !isCjk(keyword.charAt(end))
+                        && Character.isLetterOrDigit(keyword.charAt(end))) {
+                    end++;
+                }
+                if (buff.length() > 0) {
+                    buff.append(' ');
+                }
+                buff.append(keyword, i, end).append('*');
+            }
+            i = end;
+        }
+        return (buff.length() == 0) ? null: new String(buff);
+    }
+
+    /**
+     * html of a fts3 snippet of asFtsText() text, matched terms are
+     * enclosed by start and end marks.
+     */
+    public static String ftsSnippetAsHtml(String snippet, char startMark,
+            char endMark) {
+        if (snippet == null || snippet.length() == 0) {
+            return snippet;
+        }
+        int len = snippet.length();
+        StringBuilder buff = new StringBuilder(len + 32);
+        for (int i = 0; i < len; i++) {
+            char c = snippet.charAt(i);
+            if (c == startMark) {
+                buff.append("<b>");
+            } else if (c == endMark) {
+                buff.append("</b>");
+            } else if (c == ' ') {
+                // NOTE: drop the spaces asFtsText put around CJK characters
+                if (isFtsSingleChar(nearChar(snippet, i, -1, startMark, endMark))
+                        || isFtsSingleChar(nearChar(snippet, i, 1, startMark, endMark))) {
+                    continue;
+                }
+                if (i > 0 && snippet.charAt(i - 1) == ' ') {
+                    continue;
+                }
+                buff.append(c);
+            } else if (c == '&') {
+                buff.append("&amp;");
+            } else if (c == '<') {
+                buff.append("&lt;");
+            } else if (c == '>') {
+                buff.append("&gt;");
+            } else if (c == '"') {
+                buff.append("&quot;");
+            } else {
+                buff.append(c);
+            }
+        }
+        return new String(buff);
+    }
+
+    private static char nearChar(String value, int index, int step,
+            char startMark, char endMark) {
+        int len = value.length();
+        for (int i = index + step; i >= 0 && i < len; i += step) {
+            char c = value.charAt(i);
+            if (c != ' ' && c != startMark && c != endMark) {
+                return c;
+            }
+        }
+        return ' ';
+    }
+
+    private static boolean isFtsSingleChar(char c) {
+        if (c < 0x80) {
+            return false;
+        }
+        return isCjk(c)
+            || !(Character.isLetterOrDigit(c) || Character.isSpaceChar(c));
+    }
+
+    private static final int MAX_ENTITY_LENGTH = 10;
+    private static final HashMap<String, Integer> ENTITIES
+        = new HashMap<String, Integer>(256);
+
+    static {
+        ENTITIES.put("quot", 34);
+        ENTITIES.put("amp", 38);
+        ENTITIES.put("apos", 39);
+        ENTITIES.put("lt", 60);
+        ENTITIES.put("gt", 62);
+        // NOTE: html4 latin-1 entities, U+00A0 to U+00FF
+        String[] latin1 = {
+            "nbsp", "iexcl", "cent", "pound", "curren", "yen", "brvbar",
+            "sect", "uml", "copy", "ordf", "laquo", "not", "shy", "reg",
+            "macr", "deg", "plusmn", "sup2", "sup3", "acute", "micro",
+            "para", "middot", "cedil", "sup1", "ordm", "raquo", "frac14",
+            "frac12", "frac34", "iquest", "Agrave", "Aacute", "Acirc",
+            "Atilde", "Auml", "Aring", "AElig", "Ccedil", "Egrave",
+            "Eacute", "Ecirc", "Euml", "Igrave", "Iacute", "Icirc", "Iuml",
+            "ETH", "Ntilde", "Ograve", "Oacute", "Ocirc", "Otilde", "Ouml",
+            "times", "Oslash", "Ugrave", "Uacute", "Ucirc", "Uuml",
+            "Yacute", "THORN", "szlig", "agrave", "aacute", "acirc",
+            "atilde", "auml", "aring", "aelig", "ccedil", "egrave",
+            "eacute", "ecirc", "euml", "igrave", "iacute", "icirc", "iuml",
+            "eth", "ntilde", "ograve", "oacute", "ocirc", "otilde", "ouml",
+            "divide", "oslash", "ugrave", "uacute", "ucirc", "uuml",
+            "yacute", "thorn", "yuml"
+        };
+        for (int i = 0; i < latin1.length; i++) {
+            ENTITIES.put(latin1[i], 0xa0 + i);
+        }
+        Object[] others = {
+            "OElig", 338, "oelig", 339, "Scaron", 352, "scaron", 353,
+            "Yuml", 376, "fnof", 402, "circ", 710, "tilde", 732,
+            "ensp", 8194, "emsp", 8195, "thinsp", 8201, "zwnj", 8204,
+            "zwj", 8205, "lrm", 8206, "rlm", 8207, "ndash", 8211,
+            "mdash", 8212, "lsquo", 8216, "rsquo", 8217, "sbquo", 8218,
+            "ldquo", 8220, "rdquo", 8221, "bdquo", 8222, "dagger", 8224,
+            "Dagger", 8225, "bull", 8226, "hellip", 8230, "permil", 8240,
+            "prime", 8242, "Prime", 8243, "lsaquo", 8249, "rsaquo", 8250,
+            "oline", 8254, "frasl", 8260, "euro", 8364, "trade", 8482,
+            "larr", 8592, "uarr", 8593, "rarr", 8594, "darr", 8595,
+            "harr", 8596, "lArr", 8656, "uArr", 8657, "rArr", 8658,
+            "dArr", 8659, "hArr", 8660, "minus", 8722, "infin", 8734,
+            "ne", 8800, "equiv", 8801, "le", 8804, "ge", 8805,
+            "loz", 9674, "spades", 9824, "clubs", 9827, "hearts", 9829,
+            "diams", 9830
+        };
+        for (int i = 0; i < others.length; i += 2) {
+            ENTITIES.put((String) others[i], (Integer) others[i + 1]);
+        }
+    }
+
+    private static boolean isTagStart(String value, int index) {
+        if (index >= value.length()) {
+            return false;
+        }
+        char c = value.charAt(index);
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+            || c == '/' || c == '!' || c == '?';
+    }
+
+    private static boolean isBrTag(String value, int start, int end) {
+        if (end - start < 2
+                || Character.toLowerCase(value.charAt(start)) != 'b'
+                || Character.toLowerCase(value.charAt(start + 1)) != 'r') {
+            return false;
+        }
+        for (int i = start + 2; i < end; i++) {
+            char c = value.charAt(i);
+            if (c != ' ' && c != '/') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** index of ';' closing the entity at start, or -1 */
+    private static int entityEnd(String value, int start) {
+        int max = Math.min(value.length(), start + MAX_ENTITY_LENGTH + 2);
+        for (int i = start + 1; i < max; i++) {
+            char c = value.charAt(i);
+            if (c == ';') {
+                return (i > start + 1) ? i: -1;
+            }
+            if (!(c == '#' || (c >= '0' && c <= '9')
+                    || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /** code point of the entity name in value[start, end), or -1 */
+    private static int decodeEntity(String value, int start, int end) {
+        if (value.charAt(start) != '#') {
+            Integer codePoint = ENTITIES.get(value.substring(start, end));
+            return (codePoint == null) ? -1: codePoint;
+        }
+        int radix = 10;
+        int i = start + 1;
+        if (i < end && (value.charAt(i) == 'x' || value.charAt(i) == 'X')) {
+            radix = 16;
+            i++;
+        }
+        if (i == end) {
+            return -1;
+        }
+        int codePoint = 0;
+        for (; i < end; i++) {
+            int digit = Character.digit(value.charAt(i), radix);
+            if (digit == -1) {
+                return -1;
+            }
+            codePoint = codePoint * radix + digit;
+            if (codePoint > Character.MAX_CODE_POINT) {
+                return -1;
+            }
+        }
+        if (codePoint == 0 || (codePoint >= Character.MIN_SURROGATE
+                && codePoint <= Character.MAX_SURROGATE)) {
+            return -1;
+        }
+        return codePoint;
+    }
+
+    /**
+     * Appends text collapsing whitespaces, one line text is trimmed and
+     * has no newline.
+     */
+    private static class PlainTextBuilder {
+
+        private final StringBuilder buff;
+        private final boolean oneLine;
+        private boolean pendingSpace;
+
+        private PlainTextBuilder(int capacity, boolean oneLine) {
+            this.buff = new StringBuilder(Math.min(capacity, 1024));
+            this.oneLine = oneLine;
+        }
+
+        private int length() {
+            return this.buff.length();
+        }
+
+        private void append(int codePoint) {
+            if (isSpace(codePoint)) {
+                if (this.oneLine) {
+                    this.pendingSpace = true;
+                    return;
+                }
+                int len = this.buff.length();
+                if (len == 0 || this.buff.charAt(len - 1) != ' ') {
+                    this.buff.append(' ');
+                }
+                return;
+            }
+            if (this.pendingSpace) {
+                if (this.buff.length() > 0) {
+                    this.buff.append(' ');
+                }
+                this.pendingSpace = false;
+            }
+            this.buff.appendCodePoint(codePoint);
+        }
+
+        private void newline() {
+            if (this.oneLine) {
+                this.pendingSpace = true;
+            } else {
+                this.buff.append('\n');
+            }
+        }
+
+        private boolean isSpace(int c) {
+            // NOTE: &nbsp; is a plain space
+            switch (c) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case 0x0b:
+            case '\f':
+            case '\r':
+            case 0xa0:
+                return true;
+            case 0x3000:
+                return this.oneLine;
+            default:
+                return false;
+            }
+        }
+
+        public String toString() {
+            return new String(this.buff);
+        }
+
+        private String toString(int maxLength) {
+            if (this.buff.length() > maxLength) {
+                this.buff.setLength(maxLength);
+            }
+            return new String(this.buff);
+        }
+    }
+
+    private static boolean isCjk(char c) {
+        if (c < 0x2e80) {
+            return false;
+        }
+        Character.UnicodeBlock block = Character.UnicodeBlock.of(c);
+        if (block == Character.UnicodeBlock.HALFWIDTH_AND_FULLWIDTH_FORMS) {
+            return Character.isLetterOrDigit(c);
+        }
+        return (block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS
+            || block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A
+            || block == Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS
+            || block == Character.UnicodeBlock.HIRAGANA
+            || block == Character.UnicodeBlock.KATAKANA
+            || block == Character.UnicodeBlock.KATAKANA_PHONETIC_EXTENSIONS
+            || block == Character.UnicodeBlock.HANGUL_SYLLABLES);
     }
 
     public static String formatTimeAgo(long time) {
@@ -0,0 +1,347 @@
+package org.jarx.android.livedoor.reader;
+
+import java.io.IOException;
+import java.io.StringReader;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import static org.jarx.android.livedoor.reader.Utils.*;
+
+/**
+ * Decodes the api fixtures with ApiDecoder and with the json-simple
+ * ContentHandler path the sync used before it, checks that both yield
+ * the same records, and logs the time per response of each.
+ *
+ *   adb shell am instrument -w -e class \
+ *     org.jarx.android.livedoor.reader.ApiDecoderBenchmark \
+ *     org.jarx.android.livedoor.reader.tests/android.test.InstrumentationTestRunner
+ */
+public class ApiDecoderBenchmark extends InstrumentationTestCase {
+
+    private static final String TAG = "ApiDecoderBenchmark";
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 20;
+
+    public void testSubs() throws Exception {
+        compare("api/subs.json", new Path() {
+            long decode(String json) throws IOException, ParseException {
+                final Checksum sum = new Checksum();
+                new ApiDecoder(new StringReader(json)).decodeSubs(
+                        new ApiDecoder.SubscriptionHandler() {
+                    public boolean subscription(Subscription sub) {
+                        sum.add(sub);
+                        return true;
+                    }
+                });
+                return sum.value;
+            }
+        }, new Path() {
+            long decode(String json) throws IOException, ParseException {
+                SimpleSubsHandler handler = new SimpleSubsHandler();
+                new JSONParser().parse(new StringReader(json), handler);
+                return handler.sum.value;
+            }
+        });
+    }
+
+    public void testUnread() throws Exception {
+        compare("api/unread.json", ITEMS_DECODER, ITEMS_SIMPLE);
+    }
+
+    public void testAll() throws Exception {
+        compare("api/all.json", ITEMS_DECODER, ITEMS_SIMPLE);
+    }
+
+    public void testPinAll() throws Exception {
+        compare("api/pin_all.json", new Path() {
+            long decode(String json) throws IOException, ParseException {
+                final Checksum sum = new Checksum();
+                new ApiDecoder(new StringReader(json)).decodePins(
+                        new ApiDecoder.PinHandler() {
+                    public boolean pin(Pin pin) {
+                        sum.add(pin);
+                        return true;
+                    }
+                });
+                return sum.value;
+            }
+        }, new Path() {
+            long decode(String json) throws IOException, ParseException {
+                SimplePinsHandler handler = new SimplePinsHandler();
+                new JSONParser().parse(new StringReader(json), handler);
+                return handler.sum.value;
+            }
+        });
+    }
+
+    private void compare(String name, Path decoder, Path simple)
+            throws Exception {
+        String json = Fixtures.read(getInstrumentation().getContext(), name);
+        long expected = simple.decode(json);
+        assertTrue(name, expected != 0);
+        assertEquals(name, expected, decoder.decode(json));
+
+        long decoderMicros = time(decoder, json);
+        long simpleMicros = time(simple, json);
+        Log.i(TAG, name + " " + json.length() + " chars: ApiDecoder "
+            + decoderMicros + " us, json-simple " + simpleMicros + " us");
+    }
+
+    /** microseconds per decode */
+    private static long time(Path path, String json) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            path.decode(json);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            path.decode(json);
+        }
+        return (System.nanoTime() - start) / ROUNDS / 1000;
+    }
+
+    private static abstract class Path {
+        /** returns the checksum of the decoded records */
+        abstract long decode(String json) throws IOException, ParseException;
+    }
+
+    private static final Path ITEMS_DECODER = new Path() {
+        long decode(String json) throws IOException, ParseException {
+            final Checksum sum = new Checksum();
+            new ApiDecoder(new StringReader(json)).decodeItems(
+                    new ApiDecoder.ItemHandler() {
+                public boolean item(Item item) {
+                    sum.add(item);
+                    return true;
+                }
+            });
+            return sum.value;
+        }
+    };
+
+    private static final Path ITEMS_SIMPLE = new Path() {
+        long decode(String json) throws IOException, ParseException {
+            SimpleItemsHandler handler = new SimpleItemsHandler();
+            new JSONParser().parse(new StringReader(json), handler);
+            return handler.sum.value;
+        }
+    };
+
+    private static class Checksum {
+
+        private long value;
+
+        void add(Subscription sub) {
+            add(sub.getId());
+            add(sub.getTitle());
+            add(sub.getIconUri());
+            add(sub.getUri());
+            add(sub.getFolder());
+            add(sub.getRate());
+            add(sub.getUnreadCount());
+            add(sub.getSubscribersCount());
+            add(sub.getModifiedTime());
+        }
+
+        void add(Item item) {
+            add(item.getId());
+            add(item.getTitle());
+            add(item.getBody());
+            add(item.getAuthor());
+            add(item.getUri());
+            add(item.getCreatedTime());
+            add(item.getModifiedTime());
+        }
+
+        void add(Pin pin) {
+            add(pin.getUri());
+            add(pin.getTitle());
+            add(pin.getCreatedTime());
+        }
+
+        private void add(long v) {
+            this.value = this.value * 31 + v;
+        }
+
+        private void add(String s) {
+            add((s == null) ? -1: s.hashCode());
+        }
+    }
+
+    // NOTE: the handlers below are the json-simple handlers of the sync
+    // before ApiDecoder, writing records instead of ContentValues
+
+    private static class SimpleSubsHandler extends ContentHandlerAdapter {
+
+        private final Checksum sum = new Checksum();
+        private Subscription sub;
+
+        public boolean startObject() {
+            this.sub = new Subscription();
+            return true;
+        }
+
+        public boolean endObject() {
+            if (this.sub != null) {
+                this.sum.add(this.sub);
+                this.sub = null;
+            }
+            return true;
+        }
+
+        public boolean primitive(Object value) {
+            if (this.key == null || this.sub == null) {
+                return true;
+            } else if (this.key.equals("subscribe_id")) {
+                this.sub.setId(asLong(value));
+            } else if (this.key.equals("title")) {
+                this.sub.setTitle(asString(value));
+            } else if (this.key.equals("icon")) {
+                this.sub.setIconUri(asString(value));
+            } else if (this.key.equals("link")) {
+                this.sub.setUri(asString(value));
+            } else if (this.key.equals("folder")) {
+                this.sub.setFolder(asString(value));
+            } else if (this.key.equals("rate")) {
+                this.sub.setRate(asInt(value));
+            } else if (this.key.equals("unread_count")) {
+                this.sub.setUnreadCount(asInt(value));
+            } else if (this.key.equals("subscribers_count")) {
+                this.sub.setSubscribersCount(asInt(value));
+            } else if (this.key.equals("modified_on")) {
+                this.sub.setModifiedTime(asLong(value));
+            }
+            return true;
+        }
+    }
+
+    private static class SimpleItemsHandler extends ContentHandlerAdapter {
+
+        private final Checksum sum = new Checksum();
+        private boolean startItems;
+        private Item item;
+
+        public boolean startObject() {
+            if (this.startItems) {
+                this.item = new Item();
+            }
+            return true;
+        }
+
+        public boolean endObject() {
+            if (this.startItems && this.item != null) {
+                this.sum.add(this.item);
+                this.item = null;
+            }
+            return true;
+        }
+
+        public boolean startArray() {
+            if (!this.startItems && "items".equals(this.key)) {
+                this.startItems = true;
+            }
+            return true;
+        }
+
+        public boolean endArray() {
+            this.startItems = false;
+            return true;
+        }
+
+        public boolean primitive(Object value) {
+            if (this.key == null || this.item == null) {
+                return true;
+            } else if (this.key.equals("id")) {
+                this.item.setId(asLong(value));
+            } else if (this.key.equals("title")) {
+                this.item.setTitle(asString(value));
+            } else if (this.key.equals("body")) {
+                this.item.setBody(asString(value));
+            } else if (this.key.equals("author")) {
+                this.item.setAuthor(asString(value));
+            } else if (this.key.equals("link")) {
+                this.item.setUri(asString(value));
+            } else if (this.key.equals("created_on")) {
+                this.item.setCreatedTime(asLong(value));
+            } else if (this.key.equals("modified_on")) {
+                this.item.setModifiedTime(asLong(value));
+            }
+            return true;
+        }
+    }
+
+    private static class SimplePinsHandler extends ContentHandlerAdapter {
+
+        private final Checksum sum = new Checksum();
+        private Pin pin;
+
+        public boolean startObject() {
+            this.pin = new Pin();
+            return true;
+        }
+
+        public boolean endObject() {
+            if (this.pin != null) {
+                this.sum.add(this.pin);
+                this.pin = null;
+            }
+            return true;
+        }
+
+        public boolean primitive(Object value) {
+            if (this.key == null || this.pin == null) {
+                return true;
+            } else if (this.key.equals("link")) {
+                this.pin.setUri(asString(value));
+            } else if (this.key.equals("title")) {
+                this.pin.setTitle(asString(value));
+            } else if (this.key.equals("created_on")) {
+                this.pin.setCreatedTime(asLong(value));
+            }
+            return true;
+        }
+    }
+
+    private static abstract class ContentHandlerAdapter
+            implements ContentHandler {
+
+        protected String key;
+
+        public void startJSON() {
+        }
+
+        public void endJSON() {
+        }
+
+        public boolean startObject() {
+            return true;
+        }
+
+        public boolean endObject() {
+            return true;
+        }
+
+        public boolean startObjectEntry(String key) {
+            this.key = key;
+            return true;
+        }
+
+        public boolean endObjectEntry() {
+            this.key = null;
+            return true;
+        }
+
+        public boolean startArray() {
+            return true;
+        }
+
+        public boolean endArray() {
+            return true;
+        }
+
+        public boolean primitive(Object value) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.jarx.android.livedoor.reader;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.json.simple.parser.ParseException;
+
+public class ApiDecoderTest extends TestCase {
+
+    public void testQuotedNumbers() throws Exception {
+        List<Subscription> subs = decodeSubs("[{\"subscribe_id\":\"12\","
+            + "\"rate\":\"3\",\"modified_on\":1287360000,\"tags\":[]}]");
+        assertEquals(1, subs.size());
+        assertEquals(12, subs.get(0).getId());
+        assertEquals(3, subs.get(0).getRate());
+        assertEquals(1287360000, subs.get(0).getModifiedTime());
+    }
+
+    public void testEscapedQuotedNumber() throws Exception {
+        List<Subscription> subs = decodeSubs(
+            "[{\"subscribe_id\":\"1\\u0032\",\"title\":\"t\"}]");
+        assertEquals(1, subs.size());
+        assertEquals(0, subs.get(0).getId());
+        assertEquals("t", subs.get(0).getTitle());
+    }
+
+    public void testTruncatedQuotedNumber() throws Exception {
+        try {
+            decodeSubs("[{\"subscribe_id\":\"12");
+            fail("no ParseException");
+        } catch (ParseException e) {
+            assertEquals(ParseException.ERROR_UNEXPECTED_EXCEPTION,
+                e.getErrorType());
+        }
+    }
+
+    private static List<Subscription> decodeSubs(String json)
+            throws IOException, ParseException {
+        final List<Subscription> subs = new ArrayList<Subscription>();
+        new ApiDecoder(new StringReader(json)).decodeSubs(
+                new ApiDecoder.SubscriptionHandler() {
+            public boolean subscription(Subscription sub) {
+                Subscription copy = new Subscription();
+                copy.setId(sub.getId());
+                copy.setTitle(sub.getTitle());
+                copy.setRate(sub.getRate());
+                copy.setModifiedTime(sub.getModifiedTime());
+                subs.add(copy);
+                return true;
+            }
+        });
+        return subs;
+    }
+}
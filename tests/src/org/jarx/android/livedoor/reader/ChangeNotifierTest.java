@@ -0,0 +1,165 @@
+package org.jarx.android.livedoor.reader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.net.Uri;
+import android.test.ProviderTestCase2;
+
+/**
+ * Drives ReaderProvider through the writes of a scripted sync, in the
+ * order ReaderManager issues them, and counts what ChangeNotifier sends.
+ * Every table changed is notified, but at most once per window.
+ */
+public class ChangeNotifierTest extends ProviderTestCase2<ReaderProvider> {
+
+    private static final int SUBS = 60;
+    private static final int ITEMS_PER_SUB = 5;
+
+    private final CountingSink sink = new CountingSink();
+    private final ChangeNotifier notifier = new ChangeNotifier(this.sink);
+
+    public ChangeNotifierTest() {
+        super(ReaderProvider.class, ReaderProvider.AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getProvider().setChangeNotifier(this.notifier);
+    }
+
+    public void testScriptedSync() throws Exception {
+        long start = System.currentTimeMillis();
+        int writes = syncSubs() + syncItems();
+        long elapsed = System.currentTimeMillis() - start;
+        // NOTE: the last window closes after the script
+        Thread.sleep(ChangeNotifier.WINDOW_MILLIS * 3);
+
+        // NOTE: one change at once, then one flush per window
+        int maxFlushes = (int) (elapsed / ChangeNotifier.WINDOW_MILLIS) + 2;
+        assertTrue(writes > maxFlushes * 3);
+        synchronized (this.sink) {
+            assertNotified(Subscription.CONTENT_URI, maxFlushes);
+            assertNotified(Item.CONTENT_URI, maxFlushes);
+            assertEquals(2, this.sink.uris.size());
+
+            int subsFinished = this.sink.count(
+                ReaderService.ACTION_SYNC_SUBS_FINISHED);
+            assertTrue(subsFinished >= 1 && subsFinished <= maxFlushes);
+
+            List<Intent> subFinished = this.sink.intents(
+                ReaderService.ACTION_SYNC_SUB_FINISHED);
+            assertTrue(subFinished.size() >= 1
+                && subFinished.size() <= maxFlushes);
+            Set<Long> subIds = new HashSet<Long>();
+            int syncCount = 0;
+            for (Intent intent: subFinished) {
+                for (long subId: intent.getLongArrayExtra(
+                        ReaderService.EXTRA_SUB_IDS)) {
+                    subIds.add(subId);
+                }
+                syncCount += intent.getIntExtra(ReaderService.EXTRA_SYNC_COUNT, 0);
+            }
+            assertEquals(SUBS, subIds.size());
+            assertEquals(SUBS * ITEMS_PER_SUB, syncCount);
+        }
+    }
+
+    /** as SubsHandler: an update, then an insert for a new subscription */
+    private int syncSubs() {
+        ContentResolver cr = getMockContentResolver();
+        int writes = 0;
+        for (long id = 1; id <= SUBS; id++) {
+            ContentValues values = new ContentValues();
+            values.put(Subscription._ID, id);
+            values.put(Subscription._TITLE, "feed " + id);
+            values.put(Subscription._URI, "http://example.com/" + id);
+            values.put(Subscription._MODIFIED_TIME, id);
+            Uri uri = ContentUris.withAppendedId(Subscription.CONTENT_URI, id);
+            if (cr.update(uri, values, null, null) == 0) {
+                cr.insert(Subscription.CONTENT_URI, values);
+            }
+            writes += 2;
+        }
+        return writes;
+    }
+
+    /** as ReaderManager.syncItems: items and sync state in one txn */
+    private int syncItems() {
+        ContentResolver cr = getMockContentResolver();
+        int writes = 0;
+        long itemId = 1;
+        for (long subId = 1; subId <= SUBS; subId++) {
+            ContentValues[] items = new ContentValues[ITEMS_PER_SUB];
+            for (int i = 0; i < items.length; i++) {
+                ContentValues values = new ContentValues();
+                values.put(Item._ID, itemId);
+                values.put(Item._SUBSCRIPTION_ID, subId);
+                values.put(Item._URI, "http://example.com/" + subId + "/" + itemId);
+                values.put(Item._TITLE, "item " + itemId);
+                values.put(Item._BODY, "body " + itemId);
+                values.put(Item._UNREAD, 1);
+                items[i] = values;
+                itemId++;
+            }
+            cr.query(ReaderProvider.URI_TXN_BEGIN, null, null, null, null);
+            try {
+                cr.bulkInsert(Item.CONTENT_URI, items);
+                ContentValues subValues = new ContentValues();
+                subValues.put(Subscription._ITEM_SYNC_TIME, subId);
+                cr.update(ContentUris.withAppendedId(
+                    Subscription.CONTENT_URI, subId), subValues, null, null);
+                cr.query(ReaderProvider.URI_TXN_SUCCESS, null, null, null, null);
+            } finally {
+                cr.query(ReaderProvider.URI_TXN_END, null, null, null, null);
+            }
+            // NOTE: the ItemsSyncTask report
+            this.notifier.subSynced(subId, items.length);
+            writes += items.length + 1;
+        }
+        return writes;
+    }
+
+    private void assertNotified(Uri uri, int maxFlushes) {
+        Integer count = this.sink.uris.get(uri);
+        assertNotNull(uri.toString(), count);
+        assertTrue(uri + " notified " + count, count <= maxFlushes);
+    }
+
+    private static class CountingSink implements ChangeNotifier.Sink {
+
+        private final Map<Uri, Integer> uris = new HashMap<Uri, Integer>();
+        private final List<Intent> intents = new ArrayList<Intent>();
+
+        public synchronized void notifyChange(Uri uri) {
+            Integer count = this.uris.get(uri);
+            this.uris.put(uri, (count == null) ? 1: count + 1);
+        }
+
+        public synchronized void sendBroadcast(Intent intent) {
+            this.intents.add(intent);
+        }
+
+        private int count(String action) {
+            return intents(action).size();
+        }
+
+        private List<Intent> intents(String action) {
+            List<Intent> matched = new ArrayList<Intent>();
+            for (Intent intent: this.intents) {
+                if (action.equals(intent.getAction())) {
+                    matched.add(intent);
+                }
+            }
+            return matched;
+        }
+    }
+}
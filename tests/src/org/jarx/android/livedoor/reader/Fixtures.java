@@ -0,0 +1,20 @@
+package org.jarx.android.livedoor.reader;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import android.content.Context;
+
+/**
+ * Files under tests/assets: api/ holds responses in the shapes of
+ * /api/subs, /api/unread, /api/all and /api/pin/all.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static String read(Context context, String name) throws IOException {
+        return ApiClient.readString(new InputStreamReader(
+            context.getAssets().open(name), "UTF-8"));
+    }
+}
@@ -0,0 +1,232 @@
+package org.jarx.android.livedoor.reader;
+
+import java.util.ArrayList;
+import java.util.List;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+
+/**
+ * Runs EXPLAIN QUERY PLAN for the item and pin statements of the
+ * activities, the sync and the read journal on a database created with
+ * the provider schema, and fails on a plan that reads a large table
+ * without an index or sorts with a temp b-tree. The statements are built
+ * with the helpers and constants the app queries with.
+ *
+ *   adb shell am instrument -w -e class \
+ *     org.jarx.android.livedoor.reader.QueryPlansTest \
+ *     org.jarx.android.livedoor.reader.tests/android.test.InstrumentationTestRunner
+ */
+public class QueryPlansTest extends AndroidTestCase {
+
+    private static final long SUB_ID = 1;
+    private static final long ITEM_ID = 1;
+    private static final int PAGE_SIZE = 100;
+    private static final long EXPIRE_TIME = 1;
+    private static final String ORDER = Item._ID + " desc";
+
+    // NOTE: keyword indexed by fts, symbols only searched with like
+    private static final String[] KEYWORDS = {null, "a", "%"};
+
+    // NOTE: small tables, read whole by name. read_journal holds the ids
+    // pending a flush only
+    private static final String[] SCAN_TABLES = {
+        Subscription.TABLE_NAME,
+        Pin.TABLE_NAME,
+        ReadJournal.TABLE_NAME
+    };
+
+    private SQLiteDatabase db;
+    private List<String> failures;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // NOTE: in memory, the schema of a fresh install
+        this.db = new ReaderProvider.ReaderOpenHelper(getContext(), null)
+            .getWritableDatabase();
+        this.failures = new ArrayList<String>();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.db.close();
+        super.tearDown();
+    }
+
+    /** ItemListActivity.queryPage and moveToItemId */
+    public void testItemListPages() {
+        for (String keyword: KEYWORDS) {
+            for (int i = 0; i < 2; i++) {
+                boolean unreadOnly = (i == 1);
+                explainPage(keyword, unreadOnly, 0);
+                explainPage(keyword, unreadOnly, ITEM_ID);
+
+                ActivityHelper.Where where = ItemListActivity.createBaseWhere(
+                    SUB_ID, keyword, unreadOnly);
+                where.buff.append(" and ");
+                where.buff.append(Item._ID).append(" > ").append(ITEM_ID);
+                explain(ReaderProvider.sqlItemsQuery(Item.CONTENT_URI,
+                    Item.SELECT_COUNT, new String(where.buff), null),
+                    where.args);
+            }
+        }
+        assertNoScan();
+    }
+
+    /** ItemActivity.initItems navigation and ItemReadAhead */
+    public void testItemNavigation() {
+        for (String keyword: KEYWORDS) {
+            ActivityHelper.Where where = ItemListActivity.createBaseWhere(
+                SUB_ID, keyword, false);
+            explain(ReaderProvider.sqlItemsQuery(Item.CONTENT_URI, null,
+                new String(where.buff), ORDER), where.args);
+            explain(ReaderProvider.sqlItemsQuery(Item.CONTENT_URI, null,
+                where.buff + ItemActivity.SQL_UNREAD_ONLY_WHERE, ORDER),
+                where.args);
+        }
+        explain(ReaderProvider.sqlItemsQuery(
+            ContentUris.withAppendedId(Item.CONTENT_URI, ITEM_ID),
+            null, null, null));
+        explain(SQLiteQueryBuilder.buildQueryString(false, Pin.TABLE_NAME,
+            Pin.SELECT_ID, ItemReadAhead.SQL_PIN_WHERE, null, null, null,
+            null), "a");
+        assertNoScan();
+    }
+
+    /** ReaderManager.loadItemIds and the remove dialog */
+    public void testItemSync() {
+        explain(ReaderProvider.sqlItemsQuery(Item.CONTENT_URI, Item.SELECT_ID,
+            Item._SUBSCRIPTION_ID + " = " + SUB_ID, null));
+        explain("delete from " + Item.TABLE_NAME + " where "
+            + ItemActivityHelper.sqlRemoveWhere(SUB_ID, false));
+        explain("delete from " + Item.TABLE_NAME + " where "
+            + ItemActivityHelper.sqlRemoveWhere(SUB_ID, true));
+        assertNoScan();
+    }
+
+    /** ItemRetention, the over limit query and the delete chunks */
+    public void testItemRetention() {
+        explain(ReaderProvider.sqlItemsQuery(Item.CONTENT_URI, Item.SELECT_ID,
+            Item._SUBSCRIPTION_ID + " = " + SUB_ID,
+            ItemRetention.sqlOverLimitOrder(PAGE_SIZE)));
+        String[] expired = {
+            ItemRetention.sqlExpiredWhere(ITEM_ID, 0),
+            ItemRetention.sqlExpiredWhere(0, EXPIRE_TIME),
+            ItemRetention.sqlExpiredWhere(ITEM_ID, EXPIRE_TIME)
+        };
+        for (String e: expired) {
+            for (int i = 0; i < 4; i++) {
+                String where = ItemRetention.sqlDeleteWhere(SUB_ID, e,
+                    (i & 1) != 0, (i & 2) != 0);
+                explain(ReaderProvider.sqlItemsQuery(Item.CONTENT_URI,
+                    ItemRetention.SELECT_CHUNK, where,
+                    ItemRetention.SQL_CHUNK_ORDER));
+            }
+        }
+        explain("delete from " + Item.TABLE_NAME + " where "
+            + Item._ID + " in (" + ITEM_ID + ")");
+        assertNoScan();
+    }
+
+    /** ReadJournal.markRead and flush */
+    public void testReadJournal() {
+        explain(ReadJournal.sqlJournalWhere(ReadJournal.SQL_UNREAD_WHERE,
+            false));
+        explain(ReadJournal.sqlJournalWhere(
+            ReadJournal.sqlUnreadWhere(SUB_ID), false));
+        explain(ReadJournal.SQL_APPLY);
+        assertNoScan();
+    }
+
+    /** ReaderManager.syncPins */
+    public void testPins() {
+        explain(SQLiteQueryBuilder.buildQueryString(false, Pin.TABLE_NAME,
+            null, Pin._ACTION + " > " + Pin.ACTION_NONE,
+            null, null, null, null));
+        assertNoScan();
+    }
+
+    /** as ItemListActivity.queryPage pages */
+    private void explainPage(String keyword, boolean unreadOnly,
+            long beforeId) {
+        if (Utils.asFtsQuery(keyword) != null) {
+            ActivityHelper.Where where = ItemListActivity.createBaseWhere(
+                SUB_ID, null, unreadOnly);
+            explain(ReaderProvider.sqlItemsQuery(Item.pageUri(
+                Item.searchUri(keyword, SUB_ID), beforeId, PAGE_SIZE),
+                null, new String(where.buff), ORDER), where.args);
+        } else {
+            ActivityHelper.Where where = ItemListActivity.createBaseWhere(
+                SUB_ID, keyword, unreadOnly);
+            explain(ReaderProvider.sqlItemsQuery(Item.pageUri(
+                Item.CONTENT_URI, beforeId, PAGE_SIZE),
+                Item.LIST_SELECT, new String(where.buff), ORDER), where.args);
+        }
+    }
+
+    private void explain(String sql, String... args) {
+        Cursor cursor = this.db.rawQuery("explain query plan " + sql,
+            (args == null || args.length == 0) ? null: args);
+        try {
+            int detailIndex = cursor.getColumnCount() - 1;
+            while (cursor.moveToNext()) {
+                String detail = cursor.getString(detailIndex);
+                if (isScan(detail)) {
+                    this.failures.add(sql + ": " + detail);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertNoScan() {
+        assertTrue("full scan " + this.failures, this.failures.isEmpty());
+    }
+
+    /**
+     * true for a temp b-tree sort, or a table read in full other than
+     * the small tables and the fts match index.
+     */
+    static boolean isScan(String detail) {
+        if (detail == null) {
+            return false;
+        }
+        String d = detail.trim();
+        if (d.toUpperCase().indexOf("TEMP B-TREE") != -1) {
+            return true;
+        }
+        if (d.startsWith("SEARCH ")) {
+            return false;
+        }
+        if (d.startsWith("SCAN ")) {
+            // NOTE: "SCAN TABLE item" before sqlite 3.36, "SCAN item" after
+            String table = d.substring("SCAN ".length());
+            if (table.startsWith("TABLE ")) {
+                table = table.substring("TABLE ".length());
+            }
+            int end = table.indexOf(' ');
+            String rest = (end == -1) ? "": table.substring(end + 1);
+            table = (end == -1) ? table: table.substring(0, end);
+            for (String name: SCAN_TABLES) {
+                if (name.equals(table)) {
+                    return false;
+                }
+            }
+            return !(table.equals(Item.FTS_TABLE_NAME)
+                && rest.startsWith("VIRTUAL TABLE INDEX"));
+        }
+        if (d.startsWith("TABLE ")) {
+            // NOTE: before sqlite 3.7, no SEARCH and SCAN. an index or
+            // the primary key in use reads a part of the table only
+            return d.indexOf(" WITH INDEX") == -1
+                && d.indexOf(" USING PRIMARY KEY") == -1;
+        }
+        // NOTE: LIST SUBQUERY, CORRELATED SCALAR SUBQUERY, USE TEMP
+        // B-TREE ... and the like describe no table access of their own
+        return false;
+    }
+}
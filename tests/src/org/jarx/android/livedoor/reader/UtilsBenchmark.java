@@ -0,0 +1,154 @@
+package org.jarx.android.livedoor.reader;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+/**
+ * Converts the item bodies of the api fixtures to text with Utils and
+ * with the replaceAll chain it replaced, checks that both agree where
+ * the old chain knew the entities, and logs the time of each.
+ *
+ *   adb shell am instrument -w -e class \
+ *     org.jarx.android.livedoor.reader.UtilsBenchmark \
+ *     org.jarx.android.livedoor.reader.tests/android.test.InstrumentationTestRunner
+ */
+public class UtilsBenchmark extends InstrumentationTestCase {
+
+    private static final String TAG = "UtilsBenchmark";
+    private static final String[] FIXTURES = {"api/unread.json", "api/all.json"};
+    private static final int SUMMARY_LENGTH = 71;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 10;
+
+    private List<String> bodies;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final List<String> bodies = new ArrayList<String>();
+        for (String name: FIXTURES) {
+            String json = Fixtures.read(getInstrumentation().getContext(), name);
+            new ApiDecoder(new StringReader(json)).decodeItems(
+                    new ApiDecoder.ItemHandler() {
+                public boolean item(Item item) {
+                    bodies.add(item.getBody());
+                    return true;
+                }
+            });
+        }
+        this.bodies = bodies;
+    }
+
+    public void testSameText() {
+        int compared = 0;
+        for (String body: this.bodies) {
+            // NOTE: the old chain decoded six entities only
+            if (body.indexOf("&#") != -1) {
+                continue;
+            }
+            String expected = legacyPlainLine(body);
+            assertEquals(expected, Utils.stripWhitespaces(
+                Utils.htmlAsPlainText(body)));
+            assertEquals(truncate(expected),
+                Utils.htmlAsPlainLine(body, SUMMARY_LENGTH));
+            compared++;
+        }
+        assertTrue(compared > 0);
+    }
+
+    public void testSummary() {
+        long micros = time(new Conversion() {
+            String convert(String body) {
+                return Utils.htmlAsPlainLine(body, SUMMARY_LENGTH);
+            }
+        });
+        long legacyMicros = time(new Conversion() {
+            String convert(String body) {
+                return truncate(legacyPlainLine(body));
+            }
+        });
+        log("summary", micros, legacyMicros);
+    }
+
+    public void testPlainText() {
+        long micros = time(new Conversion() {
+            String convert(String body) {
+                return Utils.htmlAsPlainText(body);
+            }
+        });
+        long legacyMicros = time(new Conversion() {
+            String convert(String body) {
+                return legacyPlainText(body);
+            }
+        });
+        log("plain text", micros, legacyMicros);
+    }
+
+    private void log(String name, long micros, long legacyMicros) {
+        Log.i(TAG, name + " of " + this.bodies.size() + " bodies: Utils "
+            + micros + " us, replaceAll " + legacyMicros + " us");
+    }
+
+    /** microseconds per pass over all bodies */
+    private long time(Conversion conversion) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            conversion.convertAll(this.bodies);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            conversion.convertAll(this.bodies);
+        }
+        return (System.nanoTime() - start) / ROUNDS / 1000;
+    }
+
+    private static String truncate(String value) {
+        return (value.length() <= SUMMARY_LENGTH)
+            ? value: value.substring(0, SUMMARY_LENGTH);
+    }
+
+    private static abstract class Conversion {
+
+        abstract String convert(String body);
+
+        int convertAll(List<String> bodies) {
+            int length = 0;
+            for (String body: bodies) {
+                length += convert(body).length();
+            }
+            return length;
+        }
+    }
+
+    // NOTE: Utils.htmlAsPlainText and stripWhitespaces before the single
+    // pass scanner
+
+    private static String legacyPlainLine(String value) {
+        value = legacyPlainText(value);
+        if (value == null || value.length() == 0) {
+            return value;
+        }
+        return value.replaceAll("[\\s　]+", " ").trim();
+    }
+
+    private static String legacyPlainText(String value) {
+        if (value == null || value.length() == 0) {
+            return value;
+        }
+        value = value.replaceAll("\\s+", " ");
+        value = value.replaceAll("<br\\s?/?>", "\n");
+        value = value.replaceAll("<.*?>", " ");
+
+        value = value.replaceAll("&lt;", "<");
+        value = value.replaceAll("&gt;", ">");
+        value = value.replaceAll("&quot;", "\"");
+        value = value.replaceAll("&apos;", "\'");
+        value = value.replaceAll("&nbsp;", " ");
+        value = value.replaceAll("&amp;", "&");
+
+        value = value.replaceAll("  +", " ");
+        return value;
+    }
+}